@@ -0,0 +1,30 @@
+package edu.rit.cs;
+
+/**
+ * A listener for what a subscribing agent receives. Listeners are called in the order things arrived, on a
+ * thread of the agent, never on the thread that delivered them, so they may take their time. A listener that
+ * falls more than the agent keeps behind skips the oldest ones and is told how many.
+ */
+public interface AgentListener {
+
+    /**
+     * Called for every event received.
+     * @param event Details of the event
+     */
+    void onEvent(EventEnvelope event);
+
+    /**
+     * Called for every topic advertised.
+     * @param topic Details of the topic
+     */
+    default void onTopic(Topic topic) {
+    }
+
+    /**
+     * Called when events or topics were received faster than the listener took them and were skipped.
+     * @param events Number of events skipped
+     * @param topics Number of topics skipped
+     */
+    default void onSkipped(long events, long topics) {
+    }
+}
@@ -0,0 +1,76 @@
+package edu.rit.cs;
+import java.rmi.RemoteException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * One shard of a sharded server. It owns a slice of the topics and runs every change to their subscribers,
+ * and the recipients of every event published to them, on its own single thread, so none of that needs a
+ * lock shared with the other shards. Events of its topics are delivered by a delivery engine of its own.
+ */
+public class BrokerShard {
+
+    private final int index;
+    private final ExecutorService loop;
+    private final DeliveryEngine delivery;
+
+
+    /**
+     * Constructor of the class. It starts the thread of the shard.
+     * @param index number of the shard
+     * @param delivery delivers the events published to the topics of the shard
+     */
+    public BrokerShard(final int index, DeliveryEngine delivery) {
+        this.index = index;
+        this.delivery = delivery;
+        loop = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "broker-shard-" + index);
+                //Daemon allows this thread not to block program from exiting
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Returns the number of the shard.
+     * @return number starting at 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Returns the delivery engine of the shard.
+     * @return delivery engine
+     */
+    public DeliveryEngine getDelivery() {
+        return delivery;
+    }
+
+    /**
+     * Runs a task on the thread of the shard and waits for its result.
+     * @param task work touching the topics of this shard
+     * @param <T> type of the result
+     * @return result of the task
+     * @throws RemoteException if the task throws it or the shard can't run it
+     */
+    public <T> T call(Callable<T> task) throws RemoteException {
+        try {
+            return loop.submit(task).get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RemoteException)
+                throw (RemoteException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new RemoteException("Shard " + index + " failed.", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for shard " + index + ".", e);
+        }
+    }
+}
@@ -3,14 +3,17 @@ package edu.rit.cs;
 import java.io.FileInputStream;
 import java.io.ObjectInputStream;
 import java.net.InetAddress;
-import java.rmi.Naming;
 import java.rmi.RemoteException;
+import java.util.Arrays;
 
 /**
  * This Class takes in command line input and acts the client to connect to the server.
  * The port and hostname are set but the state of the agent can be decided accordingly.
  *      any character : new agent
  *      [-load] : to load an existing saved state of the agent.
+ *      [-pull] : to fetch events from the server instead of being called back, after either of the above.
+ *      [-credits=N] : to have every server send at most N events ahead of what the agent processed.
+ *      [-quiet] : to not print the events and topics received; they can still be listed from the console.
  */
 public class Client {
 
@@ -38,7 +41,9 @@ public class Client {
             if (hostName.length() == 0)
                 hostName = "rmiserver";
             if (agent == null) {
-                EventInterface server = (EventInterface) Naming.lookup("rmi://rmiserver:1099/EventManager");
+                // -Dpubsub.server=<name> picks the home server, any server of a cluster will do
+                String name = System.getProperty("pubsub.server", "rmi://rmiserver:1099/EventManager");
+                EventInterface server = Transport.forAddress(name).lookup(name);
                 System.out.println("Connection to Server successful" + "\nHostName: " + hostName + "\nPort: " + port );
                 agent = new PubSubAgent(server);
             }
@@ -49,6 +54,34 @@ public class Client {
     }
 
 
+    /**
+     * Switches the agent to pull mode when -pull is one of the arguments, and turns on flow control
+     * when -credits=N is. What the agent receives is printed unless -quiet is.
+     * @param args command line arguments
+     */
+    private void applyMode(String[] args) {
+        if (!Arrays.asList(args).contains("-quiet"))
+            agent.addListener(new ConsoleListener());
+        for (String arg : args) {
+            if (arg.equals("-pull")) {
+                try {
+                    agent.usePull();
+                    System.out.println("Pull mode: events are fetched from the server.");
+                } catch (RemoteException e) {
+                    System.out.println("Could not switch to pull mode.");
+                }
+            } else if (arg.startsWith("-credits=")) {
+                try {
+                    agent.useCredits(Integer.parseInt(arg.substring("-credits=".length())));
+                    System.out.println("Flow control: " + arg.substring("-credits=".length()) + " events ahead at most.");
+                } catch (NumberFormatException | RemoteException e) {
+                    System.out.println("Could not turn on flow control.");
+                }
+            }
+        }
+    }
+
+
     /**
      * Main function that creates an instance and the provides the agent console.
      *
@@ -59,6 +92,7 @@ public class Client {
         System.setSecurityManager(new SecurityManager());
 
         Client client = new Client(args);
+        client.applyMode(args);
 
         try {
             client.agent.console();
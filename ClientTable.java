@@ -0,0 +1,113 @@
+package edu.rit.cs;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Maps from the ID of a client to the RMI object of the client using an array indexed by the ID.
+ * IDs come from a counter starting at 1, so the array stays dense.
+ * A client that unbinds keeps its slot with no RMI object, so it can come back later without
+ * changing its unique identifier.
+ * Lookups read the arrays without a lock, so delivery workers never wait on connecting clients.
+ */
+public class ClientTable {
+
+    /**
+     * The arrays of one size, replaced together when the table grows.
+     */
+    private static class Slots {
+        final AtomicReferenceArray<Subscriber> bindings;
+        // Marks the IDs that have ever connected, bound or not
+        final AtomicReferenceArray<Boolean> known;
+
+        Slots(int capacity) {
+            bindings = new AtomicReferenceArray<>(capacity);
+            known = new AtomicReferenceArray<>(capacity);
+        }
+
+        int length() {
+            return bindings.length();
+        }
+    }
+
+    private volatile Slots slots;
+    private int count;
+
+
+    /**
+     * Constructor of the class.
+     */
+    public ClientTable() {
+        slots = new Slots(16);
+    }
+
+    /**
+     * Stores the RMI object of a client.
+     * @param ID unique ID of the client
+     * @param sub RMI object of the client, or NULL when it goes offline
+     */
+    public synchronized void put(int ID, Subscriber sub) {
+        Slots current = slots;
+        if (ID >= current.length()) {
+            int capacity = current.length();
+            while (ID >= capacity)
+                capacity *= 2;
+            Slots grown = new Slots(capacity);
+            for (int index = 0; index < current.length(); index++) {
+                grown.bindings.set(index, current.bindings.get(index));
+                grown.known.set(index, current.known.get(index));
+            }
+            // readers switch to the new arrays only once they hold every client
+            slots = grown;
+            current = grown;
+        }
+        if (current.known.get(ID) == null) {
+            current.known.set(ID, Boolean.TRUE);
+            count++;
+        }
+        current.bindings.set(ID, sub);
+    }
+
+    /**
+     * Returns the RMI object of a client.
+     * @param ID unique ID of the client
+     * @return RMI object or NULL if the client is offline or unknown
+     */
+    public Subscriber get(int ID) {
+        Slots current = slots;
+        if (ID <= 0 || ID >= current.length())
+            return null;
+        return current.bindings.get(ID);
+    }
+
+    /**
+     * Checks if a client has ever connected.
+     * @param ID unique ID of the client
+     * @return true if known
+     */
+    public boolean contains(int ID) {
+        Slots current = slots;
+        return ID > 0 && ID < current.length() && current.known.get(ID) != null;
+    }
+
+    /**
+     * Returning the number of clients that have connected.
+     * @return Number of clients
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Returning the IDs of every client that has connected, online or not.
+     * @return Array of IDs in ascending order
+     */
+    public synchronized int[] ids() {
+        Slots current = slots;
+        int[] result = new int[count];
+        int index = 0;
+        for (int ID = 1; ID < current.length() && index < count; ID++) {
+            if (current.known.get(ID) != null)
+                result[index++] = ID;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,184 @@
+package edu.rit.cs;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The place of one server in a cluster: its number, the routing table, and the RMI objects of the other servers.
+ * Changes every server has to see are sent to the others in the background, one at a time and in order.
+ */
+public class ClusterNode {
+
+    /**
+     * A call made on another server.
+     * @param <T> type of the result
+     */
+    public interface PeerCall<T> {
+        T call(ClusterPeer peer) throws RemoteException;
+    }
+
+    private static final int BROADCAST_ATTEMPTS = 3;
+    private static final long BROADCAST_RETRY_MILLIS = 500;
+
+    private final ClusterView view;
+    private final int index;
+    // Maps from the number of a server to its RMI object, looked up on first use
+    private final ConcurrentHashMap<Integer, ClusterPeer> peers;
+    private ExecutorService broadcasts;
+
+
+    /**
+     * Constructor of the class.
+     * @param view routing table of the cluster
+     * @param index number of this server in the routing table
+     */
+    public ClusterNode(ClusterView view, int index) {
+        if (index < 0 || index >= view.size())
+            throw new IllegalArgumentException("Server " + index + " is not in the cluster.");
+        this.view = view;
+        this.index = index;
+        peers = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns a cluster made of one server, for a server running alone.
+     * @param name RMI name of the server
+     * @return cluster of one
+     */
+    public static ClusterNode single(String name) {
+        return new ClusterNode(new ClusterView(new String[] {name}), 0);
+    }
+
+    /**
+     * Returns the routing table.
+     * @return routing table
+     */
+    public ClusterView getView() {
+        return view;
+    }
+
+    /**
+     * Returns the number of this server.
+     * @return number starting at 0
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Checks if this server owns a topic.
+     * @param topicID unique ID of the topic
+     * @return true if the topic is handled here
+     */
+    public boolean owns(int topicID) {
+        return view.nodeOf(topicID) == index;
+    }
+
+    /**
+     * Checks if an agent first connected to this server.
+     * @param subID unique ID of the agent
+     * @return true if this is the home server of the agent
+     */
+    public boolean isHome(int subID) {
+        return view.nodeOf(subID) == index;
+    }
+
+    /**
+     * Makes an ID unique in the whole cluster.
+     * @param sequence value of the counter of this server
+     * @return unique ID
+     */
+    public int makeID(int sequence) {
+        return view.makeID(sequence, index);
+    }
+
+    /**
+     * Returns the RMI object of another server.
+     * @param node number of the server
+     * @return RMI object
+     * @throws RemoteException if it can't be looked up
+     */
+    public ClusterPeer peer(int node) throws RemoteException {
+        ClusterPeer peer = peers.get(node);
+        if (peer == null) {
+            try {
+                peer = (ClusterPeer) Transport.forAddress(view.getNode(node)).lookup(view.getNode(node));
+            } catch (RemoteException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new RemoteException("Could not find server " + view.getNode(node), e);
+            }
+            peers.put(node, peer);
+        }
+        return peer;
+    }
+
+    /**
+     * Makes a call on another server and waits for its result.
+     * @param node number of the server
+     * @param call work to do on the server
+     * @param <T> type of the result
+     * @return result of the call
+     * @throws RemoteException if the server can't be reached
+     */
+    public <T> T call(int node, PeerCall<T> call) throws RemoteException {
+        try {
+            return call.call(peer(node));
+        } catch (RemoteException e) {
+            peers.remove(node); //look it up again next time, it may have restarted
+            throw e;
+        }
+    }
+
+    /**
+     * Makes a call on every other server in the background. A server that can't be reached is tried a few
+     * more times, then skipped.
+     * @param call work to do on each server
+     */
+    public void broadcast(final PeerCall<?> call) {
+        if (view.size() == 1)
+            return;
+        synchronized (this) {
+            if (broadcasts == null) {
+                broadcasts = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "cluster-broadcast");
+                        //Daemon allows this thread not to block program from exiting
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+            }
+        }
+        broadcasts.execute(new Runnable() {
+            public void run() {
+                for (int node = 0; node < view.size(); node++) {
+                    if (node != index)
+                        send(node, call);
+                }
+            }
+        });
+    }
+
+    private void send(int node, PeerCall<?> call) {
+        for (int attempt = 1; attempt <= BROADCAST_ATTEMPTS; attempt++) {
+            try {
+                call(node, call);
+                return;
+            } catch (RemoteException e) {
+                if (attempt == BROADCAST_ATTEMPTS) {
+                    System.err.println("Could not reach server " + view.getNode(node) + ": " + e.getMessage());
+                    return;
+                }
+                try {
+                    Thread.sleep(BROADCAST_RETRY_MILLIS);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+}
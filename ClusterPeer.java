@@ -0,0 +1,53 @@
+package edu.rit.cs;
+import java.rmi.RemoteException;
+
+/**
+ * Calls the servers of a cluster make on each other. A server only applies these to its own state and
+ * never passes them on, so a change reaches every server once.
+ */
+public interface ClusterPeer extends EventInterface {
+
+    /**
+     * Adds a topic whose name this server owns and tells the other servers about it.
+     *
+     * @param topic details of the topic
+     * @return unique ID of the topic, 0 if the name is taken
+     * @throws RemoteException
+     */
+    public int addOwnedTopic(Topic topic) throws RemoteException;
+
+    /**
+     * Tells this server about a topic added on its owner, so it can be listed and advertised here.
+     *
+     * @param topic details of the topic with its unique ID
+     * @throws RemoteException
+     */
+    public void topicAdded(Topic topic) throws RemoteException;
+
+    /**
+     * Binds an agent whose home is another server, so this server can deliver the events of its own topics.
+     *
+     * @param subID unique ID of the agent
+     * @param sub RMI object of the agent, or NULL when it goes offline
+     * @throws RemoteException
+     */
+    public void bindClient(int subID, Subscriber sub) throws RemoteException;
+
+    /**
+     * Applies a keyword subscription made on another server.
+     *
+     * @param subID unique ID of the agent
+     * @param keyword word of the subscription
+     * @param subscribed True when subscribing
+     * @throws RemoteException
+     */
+    public void keywordChanged(int subID, String keyword, boolean subscribed) throws RemoteException;
+
+    /**
+     * Removes an agent from the topics and keywords of this server after it unsubscribed from everything.
+     *
+     * @param subID unique ID of the agent
+     * @throws RemoteException
+     */
+    public void subscriberRemoved(int subID) throws RemoteException;
+}
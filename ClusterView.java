@@ -0,0 +1,112 @@
+package edu.rit.cs;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The routing table of a cluster of servers, handed to the agents so they can call the owner of a topic directly.
+ * A topic is owned by the server its name falls on in a consistent hash ring, so every server and agent
+ * finds the same owner without asking anyone.
+ * IDs handed out by a server carry its number: ID = sequence * number of servers + number of the server.
+ * The owner of a topic, the home server of an agent and the server that published an event can be read
+ * from their IDs. A cluster of one server hands out the same IDs as a server running alone.
+ * The ring keeps topic names spread evenly, but the list of servers can't change once IDs were handed out:
+ * every ID is decoded with the number of servers, so adding, removing or renaming a server would give
+ * existing topics, agents and events other owners. A server with an event log refuses to start if the log
+ * was written under another list.
+ */
+public class ClusterView implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+    // Points every server gets on the ring so topics are spread evenly
+    private static final int VIRTUAL_NODES = 64;
+
+    // RMI names of the servers, the position in the array is the number of the server
+    private final String[] nodes;
+    // Maps from a point of the ring to the number of the server owning the names hashed up to it
+    private final TreeMap<Integer, Integer> ring;
+
+
+    /**
+     * Constructor of the class.
+     * @param nodes RMI names of the servers, in the same order on every server
+     */
+    public ClusterView(String[] nodes) {
+        if (nodes.length == 0)
+            throw new IllegalArgumentException("A cluster needs at least one server.");
+        this.nodes = nodes.clone();
+        ring = new TreeMap<>();
+        for (int node = 0; node < nodes.length; node++) {
+            for (int point = 0; point < VIRTUAL_NODES; point++)
+                ring.put(hash(nodes[node] + "#" + point), node);
+        }
+    }
+
+    /**
+     * Returning the number of servers.
+     * @return Number of servers
+     */
+    public int size() {
+        return nodes.length;
+    }
+
+    /**
+     * Returns the RMI name of a server.
+     * @param node number of the server
+     * @return name to look up in the registry
+     */
+    public String getNode(int node) {
+        return nodes[node];
+    }
+
+    /**
+     * Returns the server owning a topic with the given name.
+     * @param topicName Name of the topic, case is ignored
+     * @return number of the server
+     */
+    public int ownerOf(String topicName) {
+        Map.Entry<Integer, Integer> entry = ring.ceilingEntry(hash(TopicRegistry.normalize(topicName)));
+        if (entry == null)
+            entry = ring.firstEntry();
+        return entry.getValue();
+    }
+
+    /**
+     * Returns the server that handed out an ID, which owns the topic or is the home of the agent.
+     * @param ID unique ID of a topic, agent or event
+     * @return number of the server
+     */
+    public int nodeOf(int ID) {
+        return ID % nodes.length;
+    }
+
+    /**
+     * Makes an ID unique in the whole cluster.
+     * @param sequence value of the counter of the server, starting at 1
+     * @param node number of the server
+     * @return unique ID
+     */
+    public int makeID(int sequence, int node) {
+        return sequence * nodes.length + node;
+    }
+
+    /**
+     * Returns the value of the counter that produced an ID.
+     * @param ID unique ID of a topic, agent or event
+     * @return sequence of the ID
+     */
+    public int sequenceOf(int ID) {
+        return ID / nodes.length;
+    }
+
+    private static int hash(String key) {
+        // spread String.hashCode, which is the same in every JVM, over the whole ring
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+}
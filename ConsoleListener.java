@@ -0,0 +1,23 @@
+package edu.rit.cs;
+
+/**
+ * Prints what the agent receives to the console, as the agent console shows it.
+ */
+public class ConsoleListener implements AgentListener {
+
+    public void onEvent(EventEnvelope event) {
+        System.out.println("Event Notification Received");
+        System.out.println("These are the Details: ");
+        System.out.println(event);
+    }
+
+    public void onTopic(Topic topic) {
+        System.out.println("Topic Advertisement Received");
+        System.out.println("These are the Details: ");
+        System.out.println(topic);
+    }
+
+    public void onSkipped(long events, long topics) {
+        System.out.println("Skipped " + events + " events and " + topics + " topics that arrived too fast to show.");
+    }
+}
@@ -0,0 +1,429 @@
+package edu.rit.cs;
+import java.io.File;
+import java.io.IOException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class delivers events to the subscribers away from the publishing thread.
+ * Every subscriber has its own outbound queue which is drained by a shared pool of workers,
+ * so a slow or offline subscriber only delays its own events.
+ * Whatever is queued for a subscriber is sent in one call of up to maxBatch events. A queue holding
+ * fewer events than that waits lingerMillis for more to arrive before it is sent.
+ * A queue whose subscriber can't be reached is retried through a timing wheel with exponential back off
+ * and jitter, so only the subscribers that are due get touched.
+ * While a subscriber is unbound its queue acts as its mailbox: publishing only appends to it, and
+ * reconnecting sends it right away, oldest first and in full batches.
+ * A subscriber in pull mode stays unbound and fetches from its mailbox instead.
+ * A subscriber that granted credits is sent no more events than it has credits for, and waits for more.
+ * A queue is kept to maxQueued events in memory; what happens beyond that is set by the overflow policy.
+ */
+public class DeliveryEngine {
+
+    public static final int DEFAULT_WORKERS = 16;
+    public static final int DEFAULT_MAX_BATCH = 256;
+    public static final int DEFAULT_LINGER_MILLIS = 5;
+    public static final long RETRY_BASE_MILLIS = 250;
+    public static final long RETRY_MAX_MILLIS = 60000;
+    public static final int DEFAULT_MAX_QUEUED = 100000;
+
+    /**
+     * What happens to a subscriber that has more than maxQueued events waiting.
+     */
+    public enum Overflow {
+        // newer events wait in a file until the subscriber catches up
+        BUFFER,
+        // the oldest waiting events are dropped
+        DROP_OLDEST,
+        // the subscriber is unbound and everything waiting for it is dropped, it can replay from its committed offsets
+        DISCONNECT;
+
+        /**
+         * Reads a policy from its name, like drop-oldest.
+         * @param name name of the policy, in any case
+         * @return the policy
+         */
+        public static Overflow parse(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private EventManager manager;
+    // Maps from the ID of a subscriber to the events waiting for it
+    private ConcurrentHashMap<Integer, SubscriberQueue> queues;
+    private ScheduledExecutorService workers;
+    private int maxBatch;
+    private long lingerMillis;
+    private TimingWheel retries;
+    // Most events waiting in memory for one subscriber, 0 for no limit
+    private int maxQueued;
+    private Overflow overflow;
+    // Where the spill files of this engine go
+    private File spillDirectory;
+
+
+    /**
+     * Constructor of the class without a limit on the events waiting for a subscriber.
+     * @param manager server used to find the RMI object of a subscriber, told about every event delivered
+     * @param workerCount number of threads making the remote calls
+     * @param maxBatch largest number of events sent in one call
+     * @param lingerMillis time a partly filled batch waits for more events
+     */
+    public DeliveryEngine(EventManager manager, int workerCount, int maxBatch, long lingerMillis) {
+        this(manager, workerCount, maxBatch, lingerMillis, 0, Overflow.BUFFER, null);
+    }
+
+    /**
+     * Constructor of the class.
+     * @param manager server used to find the RMI object of a subscriber, told about every event delivered
+     * @param workerCount number of threads making the remote calls
+     * @param maxBatch largest number of events sent in one call
+     * @param lingerMillis time a partly filled batch waits for more events
+     * @param maxQueued most events waiting in memory for one subscriber, 0 for no limit
+     * @param overflow what happens to the events of a subscriber beyond maxQueued
+     * @param spillDirectory directory of the spill files of the BUFFER policy
+     */
+    public DeliveryEngine(EventManager manager, int workerCount, int maxBatch, long lingerMillis,
+                          int maxQueued, Overflow overflow, File spillDirectory) {
+        this.manager = manager;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.lingerMillis = Math.max(0, lingerMillis);
+        this.maxQueued = Math.max(0, maxQueued);
+        this.overflow = overflow;
+        this.spillDirectory = spillDirectory;
+        queues = new ConcurrentHashMap<>();
+        workers = Executors.newScheduledThreadPool(workerCount, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "delivery-worker");
+                //Daemon allows this thread not to block program from exiting
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        retries = new TimingWheel(50, 512, workers);
+    }
+
+    /**
+     * Starts the thread that retries failed deliveries.
+     */
+    public void start() {
+        retries.start();
+    }
+
+    /**
+     * Returns the queue of a subscriber, creating it on first use.
+     * @param subID unique ID of the agent
+     * @return queue of the subscriber
+     */
+    public SubscriberQueue queueFor(int subID) {
+        SubscriberQueue queue = queues.get(subID);
+        if (queue == null) {
+            queue = new SubscriberQueue(subID);
+            SubscriberQueue existing = queues.putIfAbsent(subID, queue);
+            if (existing != null)
+                queue = existing;
+        }
+        return queue;
+    }
+
+    /**
+     * Returns the queue of a subscriber.
+     * @param subID unique ID of the agent
+     * @return queue of the subscriber, or NULL if nothing was ever queued for it
+     */
+    public SubscriberQueue getQueue(int subID) {
+        return queues.get(subID);
+    }
+
+    /**
+     * Adds an event to the queue of a subscriber and wakes up a worker for it.
+     * @param subID unique ID of the agent
+     * @param event details of the event
+     */
+    public void enqueue(int subID, EventEnvelope event) {
+        SubscriberQueue queue = queueFor(subID);
+        if (maxQueued > 0 && overflow == Overflow.BUFFER) {
+            queue.offerOrSpill(event, maxQueued, spillDirectory);
+        } else {
+            queue.offer(event);
+            // a busy worker applies the limit itself before its next batch
+            if (maxQueued > 0 && queue.memorySize() > maxQueued && queue.claim()) {
+                try {
+                    enforceLimit(queue);
+                } finally {
+                    queue.release();
+                }
+            }
+        }
+        schedule(queue);
+    }
+
+    /**
+     * Applies the overflow policy to a queue holding more than maxQueued events. Only the worker owning
+     * the queue calls it.
+     * @param queue queue of the subscriber
+     */
+    private void enforceLimit(SubscriberQueue queue) {
+        int excess = queue.memorySize() - maxQueued;
+        if (maxQueued == 0 || excess <= 0 || overflow == Overflow.BUFFER)
+            return;
+        int subID = queue.getSubscriberID();
+        if (overflow == Overflow.DISCONNECT) {
+            manager.disconnectSlow(subID);
+            queue.setInFlight(0);
+            excess = queue.memorySize();
+        }
+        if (queue.getDropped() == 0)
+            System.err.println("Subscriber " + subID + " can't keep up, "
+                    + (overflow == Overflow.DISCONNECT ? "disconnecting it." : "dropping its oldest events."));
+        for (EventEnvelope event : queue.dropOldest(excess))
+            manager.eventDropped(event, subID);
+    }
+
+    /**
+     * Called when a subscriber granted credits, so a queue waiting for them is sent right away.
+     * @param subID unique ID of the agent
+     */
+    public void resume(int subID) {
+        SubscriberQueue queue = queues.get(subID);
+        if (queue != null)
+            schedule(queue, true);
+    }
+
+    /**
+     * Adds a topic advertisement to the queue of an agent and wakes up a worker for it.
+     * @param subID unique ID of the agent
+     * @param topic details of the topic
+     */
+    public void enqueueAd(int subID, Topic topic) {
+        SubscriberQueue queue = queueFor(subID);
+        queue.offerAd(topic);
+        schedule(queue);
+    }
+
+    /**
+     * Called when a subscriber binds again, so its mailbox is sent right away without waiting for a
+     * back off or a linger.
+     * @param subID unique ID of the agent
+     */
+    public void online(int subID) {
+        SubscriberQueue queue = queues.get(subID);
+        if (queue != null) {
+            queue.resetBackoff();
+            queue.setInFlight(0); //whatever a fetch handed out is pushed again
+            schedule(queue, true);
+        }
+    }
+
+    /**
+     * Removes the events handed out by the last fetch of a pulling subscriber, which has now received them.
+     * @param subID unique ID of the agent
+     */
+    public void acknowledge(int subID) {
+        SubscriberQueue queue = queues.get(subID);
+        if (queue == null || !queue.claim())
+            return;
+        try {
+            for (int index = queue.getInFlight(); index > 0; index--) {
+                EventEnvelope event = queue.poll();
+                if (event == null)
+                    break;
+                manager.eventDelivered(event, subID);
+            }
+            if (queue.getInFlight() > 0)
+                queue.delivered();
+            queue.setInFlight(0);
+        } finally {
+            queue.release();
+        }
+    }
+
+    /**
+     * Hands the oldest waiting events to a pulling subscriber. They stay queued until acknowledged.
+     * Advertisements are dropped, a pulling subscriber lists the topics itself.
+     * @param subID unique ID of the agent
+     * @param maxEvents most events to hand out
+     * @param batch list the events are added to
+     */
+    public void fetch(int subID, int maxEvents, List<EventEnvelope> batch) {
+        SubscriberQueue queue = queues.get(subID);
+        if (queue == null || queue.isEmpty() || !queue.claim())
+            return;
+        try {
+            while (queue.pollAd() != null)
+                ;
+            enforceLimit(queue);
+            if (maxQueued > 0) {
+                try {
+                    queue.refill(maxQueued);
+                } catch (IOException e) {
+                    //the spilled events stay on disk, the subscriber is handed what is in memory
+                    System.err.println("Could not read the spilled events of " + subID + ": " + e.getMessage());
+                }
+            }
+            int start = batch.size();
+            Iterator<EventEnvelope> it = queue.iterator();
+            for (int index = 0; index < queue.getInFlight() && it.hasNext(); index++)
+                it.next(); //already handed out
+            while (it.hasNext() && batch.size() - start < maxEvents)
+                batch.add(it.next());
+            queue.setInFlight(queue.getInFlight() + batch.size() - start);
+        } finally {
+            queue.release();
+        }
+    }
+
+    /**
+     * Number of events waiting for one subscriber.
+     * @param subID unique ID of the agent
+     * @return Number of events
+     */
+    public int pendingCount(int subID) {
+        SubscriberQueue queue = queues.get(subID);
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * Hands the queue to a worker if the subscriber is online, is not backing off and no worker owns it yet.
+     * @param queue queue of the subscriber
+     */
+    public void schedule(SubscriberQueue queue) {
+        schedule(queue, false);
+    }
+
+    /**
+     * Hands the queue to a worker if the subscriber is online, is not backing off and no worker owns it yet.
+     * @param queue queue of the subscriber
+     * @param immediate true to skip the linger time
+     */
+    private void schedule(final SubscriberQueue queue, boolean immediate) {
+        if (queue.isEmpty() || queue.backingOff(System.currentTimeMillis())
+                || manager.getSubscriber(queue.getSubscriberID()) == null)
+            return;
+        if (queue.claim()) {
+            Runnable task = new Runnable() {
+                public void run() {
+                    drain(queue);
+                }
+            };
+            if (immediate || lingerMillis == 0 || queue.size() >= maxBatch)
+                workers.execute(task);
+            else
+                workers.schedule(task, lingerMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Number of events waiting for all the subscribers.
+     * @return Number of events
+     */
+    public int pendingCount() {
+        int pending = 0;
+        for (SubscriberQueue queue : queues.values())
+            pending += queue.size();
+        return pending;
+    }
+
+    /**
+     * Waits before trying a queue again, doubling the wait after every failure in a row.
+     * The wait is picked at random in its upper half so subscribers that failed together don't retry together.
+     * @param queue queue of the subscriber
+     */
+    private void backOff(final SubscriberQueue queue) {
+        int failures = queue.getFailures();
+        long delay = RETRY_BASE_MILLIS << Math.min(failures, 20);
+        delay = Math.min(delay, RETRY_MAX_MILLIS);
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        queue.failed(System.currentTimeMillis() + delay);
+        retries.schedule(new Runnable() {
+            public void run() {
+                schedule(queue);
+            }
+        }, delay);
+    }
+
+    /**
+     * Sends the queued advertisements, then the queued events in order, a batch per call, until the queue
+     * is empty or the subscriber can't be reached.
+     * @param queue queue of the subscriber
+     */
+    private void drain(SubscriberQueue queue) {
+        boolean failed = false;
+        boolean rebound = false;
+        boolean stalled = false;
+        int subID = queue.getSubscriberID();
+        Subscriber sub = manager.getSubscriber(subID);
+        try {
+            if (sub == null)
+                return; //offline, sent when it reconnects
+            Topic ad;
+            while ((ad = queue.peekAd()) != null) {
+                sub.notifyAd(ad);
+                queue.pollAd();
+            }
+            ArrayList<EventEnvelope> batch = new ArrayList<>();
+            while (true) {
+                // stop as soon as the subscriber unbinds or binds again with a new RMI object
+                if (manager.getSubscriber(subID) != sub) {
+                    rebound = true;
+                    break;
+                }
+                enforceLimit(queue);
+                if (maxQueued > 0)
+                    queue.refill(maxQueued);
+                int credits = manager.takeCredits(subID, maxBatch);
+                if (credits == 0) {
+                    stalled = true; //sent once the subscriber grants more
+                    break;
+                }
+                batch.clear();
+                Iterator<EventEnvelope> it = queue.iterator();
+                while (it.hasNext() && batch.size() < credits)
+                    batch.add(it.next());
+                if (batch.size() < credits)
+                    manager.returnCredits(subID, credits - batch.size());
+                if (batch.isEmpty())
+                    break;
+                try {
+                    if (batch.size() == 1)
+                        sub.notify(batch.get(0));
+                    else
+                        sub.notifyBatch(new EventBatch(batch));
+                } catch (RemoteException e) {
+                    manager.returnCredits(subID, batch.size());
+                    throw e;
+                }
+                //only remove once the subscriber has them
+                for (EventEnvelope event : batch) {
+                    queue.poll();
+                    manager.eventDelivered(event, subID);
+                }
+                queue.delivered();
+            }
+            queue.resetBackoff();
+        } catch (RemoteException e) {
+            failed = true; //try again later
+            rebound = manager.getSubscriber(subID) != sub;
+        } catch (IOException e) {
+            //the spill file could not be read, it is kept and read again after the back off
+            System.err.println("Could not read the spilled events of " + subID + ": " + e.getMessage());
+            failed = true;
+        } finally {
+            queue.release();
+        }
+        if (rebound)
+            schedule(queue, true); //the old RMI object is gone, use the new one now
+        else if (failed)
+            backOff(queue);
+        else if (!stalled || manager.hasCredits(subID))
+            schedule(queue); //an event or credits may have been added after the last batch was taken
+    }
+}
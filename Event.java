@@ -1,20 +1,19 @@
 package edu.rit.cs;
-import java.io.Serializable;
-import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 /**
  * This class helps to handle the event details.
  */
-public class Event implements Serializable {
+public class Event implements Externalizable {
     private static final long serialVersionUID = 1L;
     private int eventID = 0;
     private Topic topic;
     private String title;
     private String content;
     private String[] keywords;
-    private LinkedHashSet<Integer> pendingNotifications;
 
     /**
      * Constructor for the class.
@@ -33,7 +32,60 @@ public class Event implements Serializable {
         else{
             this.keywords = keywords.split(",");
         }
-        pendingNotifications = new LinkedHashSet<>();
+    }
+
+    /**
+     * Constructor used when reading an event back from its binary form.
+     */
+    public Event(){
+        this.keywords = new String[0];
+    }
+
+    /**
+     * Writes the event in the compact format of WireCodec.
+     * The topic is written inline, so keywords copied from the topic cost one byte each.
+     * @param out stream to write to
+     * @throws IOException
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(new WireCodec.Writer(out));
+    }
+
+    /**
+     * Reads the event written by writeExternal.
+     * @param in stream to read from
+     * @throws IOException
+     */
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(new WireCodec.Reader(in));
+    }
+
+    /**
+     * Writes the event with a writer that may be shared with other values of the same message.
+     * @param writer writer of the message
+     * @throws IOException
+     */
+    public void writeTo(WireCodec.Writer writer) throws IOException {
+        writer.writeVarInt(eventID);
+        writer.writeTopic(topic);
+        writer.writeString(title);
+        writer.writeString(content);
+        writer.writeKeywords(keywords);
+    }
+
+    /**
+     * Reads the event written by writeTo.
+     * @param reader reader of the message
+     * @return this event
+     * @throws IOException
+     */
+    public Event readFrom(WireCodec.Reader reader) throws IOException {
+        eventID = reader.readVarInt();
+        topic = reader.readTopic();
+        title = reader.readString();
+        content = reader.readString();
+        keywords = reader.readKeywords();
+        return this;
     }
 
     /**
@@ -126,27 +178,11 @@ public class Event implements Serializable {
     }
 
     /**
-     * Iterator to allow for removal of Subscribers after they are notified.
-     */
-    public synchronized Iterator<Integer> iterator() {
-        return pendingNotifications.iterator();
-    }
-
-    /**
-     * Number of clients left to notify
-     */
-    public synchronized int clientsLeft() {
-        return pendingNotifications.size();
-    }
-
-    /**
-     *
-     * @param list List of subscribers.
-     * @return True if list was added else false.
+     * Builds what is sent to the subscribers for this event.
+     * @param offset position of the event in its topic
+     * @return envelope with the ID, topic ID, offset, title, content and keywords
      */
-    public synchronized boolean addSubscriberList(Collection<Integer> list) {
-        if (list != null)
-            return pendingNotifications.addAll(list);
-        return false;
+    public EventEnvelope toEnvelope(long offset) {
+        return new EventEnvelope(eventID, topic.getTopicID(), offset, title, content, keywords);
     }
 }
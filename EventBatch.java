@@ -0,0 +1,82 @@
+package edu.rit.cs;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A class that carries several events to a subscriber in one call.
+ * The events share one WireCodec stream, so a keyword is only spelled out the first time it appears in the batch.
+ */
+public class EventBatch implements Externalizable, Iterable<EventEnvelope> {
+    private static final long serialVersionUID = 1L;
+    private ArrayList<EventEnvelope> events;
+
+    /**
+     * Constructor of the class.
+     * @param events envelopes in the order they were published
+     */
+    public EventBatch(Collection<EventEnvelope> events) {
+        this.events = new ArrayList<>(events);
+    }
+
+    /**
+     * Constructor used when reading a batch back from its binary form.
+     */
+    public EventBatch() {
+        this.events = new ArrayList<>();
+    }
+
+    /**
+     * Number of events in the batch.
+     * @return Number of events
+     */
+    public int size() {
+        return events.size();
+    }
+
+    /**
+     * Returns the event at a position of the batch.
+     * @param index position in the batch
+     * @return envelope of the event
+     */
+    public EventEnvelope get(int index) {
+        return events.get(index);
+    }
+
+    /**
+     * Iterator over the events in the order they were published.
+     * @return iterator to iterate
+     */
+    public Iterator<EventEnvelope> iterator() {
+        return events.iterator();
+    }
+
+    /**
+     * Writes the batch in the compact format of WireCodec.
+     * @param out stream to write to
+     * @throws IOException
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writer.writeVarInt(events.size());
+        for (EventEnvelope event : events)
+            writer.writeEnvelope(event);
+    }
+
+    /**
+     * Reads the batch written by writeExternal.
+     * @param in stream to read from
+     * @throws IOException
+     */
+    public void readExternal(ObjectInput in) throws IOException {
+        WireCodec.Reader reader = new WireCodec.Reader(in);
+        int size = reader.readCount();
+        events = new ArrayList<>(size);
+        for (int index = 0; index < size; index++)
+            events.add(reader.readEnvelope());
+    }
+}
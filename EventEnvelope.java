@@ -0,0 +1,137 @@
+package edu.rit.cs;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * This class is what gets sent to a subscriber for a published event.
+ * It only carries the event itself, so its size does not depend on how many agents receive it.
+ * It is written in the compact format of WireCodec.
+ */
+public class EventEnvelope implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private int eventID;
+    private int topicID;
+    private long offset;
+    private String title;
+    private String content;
+    private String[] keywords;
+
+    /**
+     * Constructor for the class.
+     * @param eventID Unique ID of the event
+     * @param topicID Unique ID of the topic of the event
+     * @param offset Position of the event in its topic
+     * @param title Title for the event
+     * @param content Information for the event
+     * @param keywords Words associated to the event
+     */
+    public EventEnvelope(int eventID, int topicID, long offset, String title, String content, String[] keywords) {
+        this.eventID = eventID;
+        this.topicID = topicID;
+        this.offset = offset;
+        this.title = title;
+        this.content = content;
+        this.keywords = keywords;
+    }
+
+    /**
+     * Constructor used when reading an envelope back from its binary form.
+     */
+    public EventEnvelope() {
+        this.keywords = new String[0];
+    }
+
+    /**
+     * Writes the envelope in the compact format of WireCodec.
+     * @param out stream to write to
+     * @throws IOException
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        new WireCodec.Writer(out).writeEnvelope(this);
+    }
+
+    /**
+     * Reads the envelope written by writeExternal.
+     * @param in stream to read from
+     * @throws IOException
+     */
+    public void readExternal(ObjectInput in) throws IOException {
+        EventEnvelope read = new WireCodec.Reader(in).readEnvelope();
+        eventID = read.eventID;
+        topicID = read.topicID;
+        offset = read.offset;
+        title = read.title;
+        content = read.content;
+        keywords = read.keywords;
+    }
+
+    /**
+     * Returns ID
+     * @return ID
+     */
+    public int getID() {
+        return eventID;
+    }
+
+    /**
+     * Returns the ID of the topic of the event
+     * @return ID number
+     */
+    public int getTopicID() {
+        return topicID;
+    }
+
+    /**
+     * Returns the position of the event in its topic, counting from 0
+     * @return offset
+     */
+    public long getOffset() {
+        return offset;
+    }
+
+    /**
+     * Returns event Title.
+     * @return String
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Return information about the event.
+     * @return the content of this Event
+     */
+    public String getContent() {
+        return content;
+    }
+
+    /**
+     *  Returns keywords associated with the event.
+     * @return keywords used for filtering that match to this event
+     */
+    public String[] getKeywords() {
+        return keywords;
+    }
+
+    /**
+     * Overriding the function to display according to requirements.
+     * @return details of the event
+     */
+    public String toString() {
+        String eventDetails = "EventID: " +this.eventID + "\n" +
+                "Title: "+ this.title + "\n" +
+                "Main Topic: "+ topicID + " (offset " + offset + ")\n" +
+                "Content: " + content + "\n" +
+                "Keywords: ";
+        for (int index = 0; index <keywords.length; index++) {
+            if (index == (keywords.length - 1)) {
+                eventDetails += keywords[index] + ".\n";
+            } else {
+                eventDetails += keywords[index] + ", ";
+            }
+        }
+        return eventDetails;
+    }
+}
@@ -1,6 +1,7 @@
 package edu.rit.cs;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.List;
 
 public interface EventInterface extends java.rmi.Remote {
 
@@ -62,6 +63,26 @@ public interface EventInterface extends java.rmi.Remote {
      */
     public boolean removeSubscriber(Integer subID, Topic t) throws RemoteException;
 
+    /**
+     * When agent subscribes to a keyword, add it to the content filter
+     *
+     * @param subID unique ID of the agent
+     * @param keyword word carried by the events it wants
+     * @return True if successful else False
+     * @throws RemoteException
+     */
+    public boolean addKeywordSubscriber(Integer subID, String keyword) throws RemoteException;
+
+    /**
+     * Remove the agent from the content filter of a keyword
+     *
+     * @param subID unique ID of the agent
+     * @param keyword word it unsubscribes from
+     * @return True if successful, False if not
+     * @throws RemoteException
+     */
+    public boolean removeKeywordSubscriber(Integer subID, String keyword) throws RemoteException;
+
 
     /**
      * Publish an event to the subscribers.
@@ -72,6 +93,71 @@ public interface EventInterface extends java.rmi.Remote {
      */
     public int publish(Event event) throws RemoteException;
 
+    /**
+     * Publish several events, possibly of different topics, in one call.
+     * The events of each topic are delivered in the order of the list.
+     *
+     * @param events Details of the events
+     * @return Unique IDs of the events in the order of the list, 0 for an event that was not published
+     * @throws RemoteException
+     */
+    public int[] publishBatch(List<Event> events) throws RemoteException;
+
+    /**
+     * Fetch the events waiting for an agent instead of having them pushed to it.
+     * Each poll acknowledges the events returned by the previous one.
+     *
+     * @param subID unique ID of the agent
+     * @param maxEvents most events to return
+     * @param timeoutMillis longest time to wait when no event is waiting
+     * @return Batch of events, empty if none arrived in time
+     * @throws RemoteException
+     */
+    public EventBatch poll(Integer subID, int maxEvents, long timeoutMillis) throws RemoteException;
+
+    /**
+     * Allow the server to send an agent more events. After its first grant an agent is sent no more events
+     * than it granted, each server delivering to it counting on its own.
+     *
+     * @param subID unique ID of the agent
+     * @param credits number of further events it can take, or -1 to send without limit
+     * @return True if successful, False if not
+     * @throws RemoteException
+     */
+    public boolean grantCredits(Integer subID, int credits) throws RemoteException;
+
+    /**
+     * Set the offset an agent resumes a topic from. Receiving an event commits the offset after it too.
+     *
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic
+     * @param offset offset of the first event the agent has not processed
+     * @return True if successful, False if not
+     * @throws RemoteException
+     */
+    public boolean commitOffset(Integer subID, int topicID, long offset) throws RemoteException;
+
+    /**
+     * Return the offset an agent resumes a topic from.
+     *
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic
+     * @return offset, or -1 if nothing was received or committed
+     * @throws RemoteException
+     */
+    public long getCommittedOffset(Integer subID, int topicID) throws RemoteException;
+
+    /**
+     * Send an agent the retained events of a topic again, from an offset on.
+     *
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic
+     * @param offset offset to start from, or -1 for the committed offset
+     * @return number of events sent again
+     * @throws RemoteException
+     */
+    public int replay(Integer subID, int topicID, long offset) throws RemoteException;
+
     /**
      * Return the complete list of Topics available.
      *
@@ -80,6 +166,46 @@ public interface EventInterface extends java.rmi.Remote {
      */
     public ArrayList<Topic> getTopics() throws RemoteException;
 
+    /**
+     * Return the version of the list of Topics, which grows every time a topic is added,
+     * so an agent knows when its copy of the list is out of date.
+     *
+     * @return version of the list of Topics
+     * @throws RemoteException
+     */
+    public long getCatalogVersion() throws RemoteException;
+
+    /**
+     * Return the Topics added after a version of the list, at most maxTopics of them. Reading the pages from
+     * version 0 lists every Topic, and reading from the version an agent has brings its copy up to date.
+     *
+     * @param sinceVersion version of the list the agent has, 0 for none
+     * @param maxTopics most Topics returned
+     * @return page of Topics with the version of the list it brings the agent to
+     * @throws RemoteException
+     */
+    public TopicPage getTopicPage(long sinceVersion, int maxTopics) throws RemoteException;
+
+    /**
+     * Find a Topic by its name without listing every Topic.
+     *
+     * @param name Name of the topic
+     * @param ignoreCase true to match the name whatever its case
+     * @return the Topic or NULL if no Topic has that name
+     * @throws RemoteException
+     */
+    public Topic findTopic(String name, boolean ignoreCase) throws RemoteException;
+
+    /**
+     * Find the Topics whose name starts with some letters, ignoring case, such as to complete a name being typed.
+     *
+     * @param prefix first letters of the names
+     * @param maxTopics most Topics returned
+     * @return List of Topics in alphabetical order
+     * @throws RemoteException
+     */
+    public ArrayList<Topic> findTopicsByPrefix(String prefix, int maxTopics) throws RemoteException;
+
     /**
      * To disconnect from the server after saving it's state
      *
@@ -97,4 +223,12 @@ public interface EventInterface extends java.rmi.Remote {
      * @throws RemoteException
      */
     public Subscriber getSubscriber(Integer ID) throws RemoteException;
+
+    /**
+     * Return the servers of the cluster and which topics each of them owns.
+     *
+     * @return routing table, a single server when not clustered
+     * @throws RemoteException
+     */
+    public ClusterView getClusterView() throws RemoteException;
 }
\ No newline at end of file
@@ -0,0 +1,581 @@
+package edu.rit.cs;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log on local disk that lets the server survive a restart without losing undelivered events.
+ *
+ * Published events and delivery acknowledgements go to numbered segment files. Segments are deleted
+ * oldest first, once they are no longer written to and every event in them has reached all of its
+ * subscribers, so an acknowledgement is never lost before its event. Topics, clients and subscriptions
+ * go to a separate registry file that is never deleted. Every new segment starts with a checkpoint of the
+ * topic offsets and the committed offsets of the agents, so they survive the deletion of older segments.
+ *
+ * Every record is [length][CRC32][type][payload] with the payload in the WireCodec format. Writes go
+ * straight to the file channel and one flusher thread forces them to disk for every caller waiting at that
+ * moment (group commit), so many publishers share one fsync.
+ */
+public class EventLog {
+
+    public static final long DEFAULT_SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private static final byte TOPIC = 1;
+    private static final byte CLIENT = 2;
+    private static final byte SUBSCRIBE = 3;
+    private static final byte UNSUBSCRIBE = 4;
+    private static final byte KEYWORD_SUBSCRIBE = 5;
+    private static final byte KEYWORD_UNSUBSCRIBE = 6;
+    private static final byte EVENT = 7;
+    private static final byte ACK = 8;
+    private static final byte OFFSETS = 9;
+
+    private static final String REGISTRY_FILE = "registry.log";
+    // Servers of the cluster the log was written in and the place of this server among them
+    private static final String CLUSTER_FILE = "cluster.txt";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * Receives what was found in the log while the server recovers.
+     */
+    public interface Listener {
+        /**
+         * A topic that was added, with its ID set.
+         * @param topic details of the topic
+         */
+        void recoverTopic(Topic topic);
+
+        /**
+         * A client that connected.
+         * @param subID unique ID of the client
+         */
+        void recoverClient(int subID);
+
+        /**
+         * A topic subscription or unsubscription, in the order they happened.
+         * @param subID unique ID of the agent
+         * @param topicID unique ID of the topic, or 0 for all topics
+         * @param subscribed true when subscribing
+         */
+        void recoverSubscription(int subID, int topicID, boolean subscribed);
+
+        /**
+         * A keyword subscription or unsubscription, in the order they happened.
+         * @param subID unique ID of the agent
+         * @param keyword word of the subscription
+         * @param subscribed true when subscribing
+         */
+        void recoverKeyword(int subID, String keyword, boolean subscribed);
+
+        /**
+         * An event still in the log, in publish order, with the agents that have not received it.
+         * @param event envelope of the event
+         * @param pendingRecipients IDs of the agents still to notify, empty if every agent received it
+         */
+        void recoverEvent(EventEnvelope event, int[] pendingRecipients);
+
+        /**
+         * An offset from a checkpoint or a commit, in the order they were written, after every event.
+         * @param subID unique ID of the agent that committed it, or 0 for the offset of the next event of the topic
+         * @param topicID unique ID of the topic
+         * @param offset the offset
+         */
+        void recoverOffset(int subID, int topicID, long offset);
+    }
+
+    /**
+     * Supplies the offsets written at the start of every segment.
+     */
+    public interface Checkpoint {
+        /**
+         * Returns the offset of the next event of every topic and the offsets committed by the agents.
+         * @return List of {agent ID or 0 for a topic, topic ID, offset}
+         */
+        List<long[]> offsets();
+    }
+
+    /**
+     * One file of the event log.
+     */
+    private static class Segment {
+        final long number;
+        final File file;
+        FileChannel channel;
+        int outstanding;
+
+        Segment(long number, File file) {
+            this.number = number;
+            this.file = file;
+        }
+    }
+
+    private File directory;
+    private long segmentBytes;
+    private FileChannel registry;
+    private LinkedHashMap<Long, Segment> segments;
+    private Segment active;
+    // Maps from the ID of an event not yet fully delivered to the segment holding it
+    private HashMap<Integer, Segment> eventSegments;
+    // Offsets written at the start of every segment, NULL for none
+    private Checkpoint checkpoint;
+
+    // Group commit state, guarded by syncLock
+    private final Object syncLock = new Object();
+    private long appended = 0;
+    private long durable = 0;
+    private IOException flushError;
+
+    // Only used while recovering: events in publish order and the recipients that have not acknowledged them
+    private LinkedHashMap<Integer, EventEnvelope> replayedEvents;
+    private HashMap<Integer, IntSet> replayedPending;
+    // Only used while recovering: checkpoints and commits, told to the listener after the events
+    private ArrayList<long[]> replayedOffsets;
+
+
+    /**
+     * Opens the log in a directory, creating it if needed. Call recover before appending.
+     * @param directory directory holding the files of the log
+     * @param segmentBytes size after which a new segment is started
+     * @throws IOException if the directory can't be used
+     */
+    public EventLog(File directory, long segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create log directory " + directory);
+        segments = new LinkedHashMap<>();
+        eventSegments = new HashMap<>();
+        registry = FileChannel.open(new File(directory, REGISTRY_FILE).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Makes sure the log belongs to this server of this cluster. Every ID in the log carries the number of the
+     * server that made it, decoded with the number of servers, so the log can't be read under another list of
+     * servers. The first call records the list; later ones fail if it changed. Call it before recover.
+     * @param view servers of the cluster
+     * @param index number of this server
+     * @throws IOException if the log was written by another server or under another list of servers
+     */
+    public void checkCluster(ClusterView view, int index) throws IOException {
+        ArrayList<String> lines = new ArrayList<>();
+        lines.add(Integer.toString(index));
+        for (int node = 0; node < view.size(); node++)
+            lines.add(view.getNode(node));
+        File file = new File(directory, CLUSTER_FILE);
+        if (!file.exists()) {
+            Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+            return;
+        }
+        List<String> recorded = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        if (!recorded.equals(lines))
+            throw new IOException("The log in " + directory + " was written by server " + recorded.get(0)
+                    + " of " + recorded.subList(1, recorded.size()) + ", not server " + index + " of "
+                    + lines.subList(1, lines.size()) + ". The servers of a cluster can't change for the same log.");
+    }
+
+    /**
+     * Sets where the offsets written at the start of every segment come from. Call it before recover.
+     * @param checkpoint source of the offsets
+     */
+    public synchronized void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Replays the registry and every segment, telling the listener about topics, clients, subscriptions
+     * offsets and the events still in the log. Fully delivered segments are deleted.
+     * @param listener receives the recovered state
+     * @throws IOException if a file can't be read
+     */
+    public synchronized void recover(Listener listener) throws IOException {
+        replay(registry, null, listener);
+
+        File[] files = directory.listFiles();
+        ArrayList<Long> numbers = new ArrayList<>();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    numbers.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length())));
+            }
+        }
+        numbers.sort(null);
+
+        replayedEvents = new LinkedHashMap<>();
+        replayedPending = new HashMap<>();
+        replayedOffsets = new ArrayList<>();
+        for (long number : numbers) {
+            Segment segment = new Segment(number, segmentFile(number));
+            segment.channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            segments.put(number, segment);
+            replay(segment.channel, segment, listener);
+        }
+
+        for (EventEnvelope event : replayedEvents.values()) {
+            IntSet left = replayedPending.get(event.getID());
+            if (!left.isEmpty())
+                eventSegments.get(event.getID()).outstanding++;
+            else
+                eventSegments.remove(event.getID());
+            listener.recoverEvent(event, left.toArray());
+        }
+        for (long[] offset : replayedOffsets)
+            listener.recoverOffset((int) offset[0], (int) offset[1], offset[2]);
+        replayedEvents = null;
+        replayedPending = null;
+        replayedOffsets = null;
+
+        long next = numbers.isEmpty() ? 1 : numbers.get(numbers.size() - 1) + 1;
+        roll(next);
+        startFlusher();
+    }
+
+    /**
+     * Writes a new topic to the registry and waits until it is on disk.
+     * @param topic details of the topic with its ID set
+     * @throws IOException if the write fails
+     */
+    public void appendTopic(Topic topic) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new WireCodec.Writer(new DataOutputStream(bytes)).writeTopic(topic);
+        awaitDurable(append(registry, TOPIC, bytes.toByteArray()));
+    }
+
+    /**
+     * Writes a newly connected client to the registry.
+     * @param subID unique ID of the client
+     * @throws IOException if the write fails
+     */
+    public void appendClient(int subID) throws IOException {
+        awaitDurable(append(registry, CLIENT, ints(subID)));
+    }
+
+    /**
+     * Writes a topic subscription or unsubscription to the registry. A topic ID of 0 means all topics.
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic, or 0
+     * @param subscribed true when subscribing
+     * @throws IOException if the write fails
+     */
+    public void appendSubscription(int subID, int topicID, boolean subscribed) throws IOException {
+        awaitDurable(append(registry, subscribed ? SUBSCRIBE : UNSUBSCRIBE, ints(subID, topicID)));
+    }
+
+    /**
+     * Writes a keyword subscription or unsubscription to the registry.
+     * @param subID unique ID of the agent
+     * @param keyword word of the subscription
+     * @param subscribed true when subscribing
+     * @throws IOException if the write fails
+     */
+    public void appendKeyword(int subID, String keyword, boolean subscribed) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        WireCodec.writeVarInt(out, subID);
+        WireCodec.writeString(out, keyword);
+        awaitDurable(append(registry, subscribed ? KEYWORD_SUBSCRIBE : KEYWORD_UNSUBSCRIBE, bytes.toByteArray()));
+    }
+
+    /**
+     * Writes a published event with its recipients without waiting for it to reach the disk.
+     * An event without recipients is written too, so its offset is not handed out again after a restart.
+     * @param event envelope of the event
+     * @param recipients IDs of the agents to notify
+     * @return sequence to pass to awaitDurable
+     * @throws IOException if the write fails
+     */
+    public long writeEvent(EventEnvelope event, int[] recipients) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        WireCodec.Writer writer = new WireCodec.Writer(new DataOutputStream(bytes));
+        writer.writeEnvelope(event);
+        writer.writeVarInt(recipients.length);
+        for (int subID : recipients)
+            writer.writeVarInt(subID);
+        long sequence;
+        synchronized (this) {
+            sequence = append(active.channel, EVENT, bytes.toByteArray());
+            if (recipients.length > 0) {
+                active.outstanding++;
+                eventSegments.put(event.getID(), active);
+            }
+            if (active.channel.size() >= segmentBytes)
+                roll(active.number + 1);
+        }
+        return sequence;
+    }
+
+    /**
+     * Writes the offset an agent resumes a topic from and waits until it is on disk.
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic
+     * @param offset the committed offset
+     * @throws IOException if the write fails
+     */
+    public void appendCommit(int subID, int topicID, long offset) throws IOException {
+        ArrayList<long[]> offsets = new ArrayList<>();
+        offsets.add(new long[] {subID, topicID, offset});
+        long sequence;
+        synchronized (this) {
+            sequence = append(active.channel, OFFSETS, offsetRecord(offsets));
+        }
+        awaitDurable(sequence);
+    }
+
+    /**
+     * Writes that an agent received an event. It is not waited for: losing it only means the
+     * event is sent again after a crash.
+     * @param eventID unique ID of the event
+     * @param subID unique ID of the agent
+     * @throws IOException if the write fails
+     */
+    public synchronized void appendAck(int eventID, int subID) throws IOException {
+        append(active.channel, ACK, ints(eventID, subID));
+        if (active.channel.size() >= segmentBytes)
+            roll(active.number + 1);
+    }
+
+    /**
+     * Tells the log that every agent received an event, so its segment may be deleted.
+     * @param eventID unique ID of the event
+     */
+    public synchronized void completed(int eventID) {
+        Segment segment = eventSegments.remove(eventID);
+        if (segment != null) {
+            segment.outstanding--;
+            deleteDone();
+        }
+    }
+
+    /**
+     * Number of segment files on disk.
+     * @return Number of segments
+     */
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    private long append(FileChannel channel, byte type, byte[] payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(payload);
+        ByteBuffer buffer = ByteBuffer.allocate(9 + payload.length);
+        buffer.putInt(payload.length + 1).putInt((int) crc.getValue()).put(type).put(payload);
+        buffer.flip();
+        synchronized (channel) {
+            channel.position(channel.size());
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+        synchronized (syncLock) {
+            appended++;
+            syncLock.notifyAll();
+            return appended;
+        }
+    }
+
+    /**
+     * Waits until everything written up to a sequence is on disk.
+     * @param sequence sequence returned by a write
+     * @throws IOException if the log could not be forced to disk
+     */
+    public void awaitDurable(long sequence) throws IOException {
+        synchronized (syncLock) {
+            while (durable < sequence && flushError == null) {
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for the log.");
+                }
+            }
+            if (flushError != null)
+                throw flushError;
+        }
+    }
+
+    private void startFlusher() {
+        Thread t = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    long target;
+                    synchronized (syncLock) {
+                        while (durable == appended) {
+                            try {
+                                syncLock.wait();
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                        target = appended;
+                    }
+                    try {
+                        FileChannel current;
+                        synchronized (EventLog.this) {
+                            current = active.channel;
+                        }
+                        current.force(false);
+                        registry.force(false);
+                    } catch (IOException e) {
+                        synchronized (syncLock) {
+                            flushError = e;
+                            syncLock.notifyAll();
+                        }
+                        return;
+                    }
+                    synchronized (syncLock) {
+                        durable = target;
+                        syncLock.notifyAll();
+                    }
+                }
+            }
+        }, "event-log-flusher");
+        //Daemon allows this thread not to block program from exiting
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void roll(long number) throws IOException {
+        if (active != null) {
+            // records written so far must be durable once the flusher moves to the new segment
+            active.channel.force(false);
+        }
+        Segment segment = new Segment(number, segmentFile(number));
+        segment.channel = FileChannel.open(segment.file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        segments.put(number, segment);
+        active = segment;
+        if (checkpoint != null) {
+            // the offsets must be on disk before the segments holding them are deleted
+            append(segment.channel, OFFSETS, offsetRecord(checkpoint.offsets()));
+            segment.channel.force(false);
+        }
+        deleteDone();
+    }
+
+    private void deleteDone() {
+        Iterator<Segment> it = segments.values().iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (segment == active || segment.outstanding > 0)
+                return;
+            try {
+                segment.channel.close();
+            } catch (IOException e) { } //the file is deleted either way
+            segment.file.delete();
+            it.remove();
+        }
+    }
+
+    private File segmentFile(long number) {
+        return new File(directory, SEGMENT_PREFIX + String.format("%010d", number) + SEGMENT_SUFFIX);
+    }
+
+    private void replay(FileChannel channel, Segment segment, Listener listener) throws IOException {
+        long size = channel.size();
+        // the whole file is read through one mapping instead of two reads per record
+        ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        long position = 0;
+        CRC32 crc = new CRC32();
+        while (position + 9 <= size) {
+            file.position((int) position);
+            int length = file.getInt();
+            int checksum = file.getInt();
+            byte type = file.get();
+            if (length < 1 || position + 8 + length > size)
+                break;
+            byte[] payload = new byte[length - 1];
+            file.get(payload);
+            crc.reset();
+            crc.update(type);
+            crc.update(payload);
+            if ((int) crc.getValue() != checksum)
+                break;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            WireCodec.Reader reader = new WireCodec.Reader(in);
+            switch (type) {
+                case TOPIC:
+                    listener.recoverTopic(reader.readTopic());
+                    break;
+                case CLIENT:
+                    listener.recoverClient(reader.readVarInt());
+                    break;
+                case SUBSCRIBE:
+                case UNSUBSCRIBE:
+                    listener.recoverSubscription(reader.readVarInt(), reader.readVarInt(), type == SUBSCRIBE);
+                    break;
+                case KEYWORD_SUBSCRIBE:
+                case KEYWORD_UNSUBSCRIBE:
+                    listener.recoverKeyword(reader.readVarInt(), reader.readString(), type == KEYWORD_SUBSCRIBE);
+                    break;
+                case EVENT: {
+                    EventEnvelope event = reader.readEnvelope();
+                    int[] recipients = new int[reader.readVarInt()];
+                    for (int index = 0; index < recipients.length; index++)
+                        recipients[index] = reader.readVarInt();
+                    replayedEvents.put(event.getID(), event);
+                    replayedPending.put(event.getID(), new IntSet(recipients));
+                    eventSegments.put(event.getID(), segment);
+                    break;
+                }
+                case OFFSETS: {
+                    int count = reader.readVarInt();
+                    for (int index = 0; index < count; index++)
+                        replayedOffsets.add(new long[] {reader.readVarInt(), reader.readVarInt(), reader.readVarLong()});
+                    break;
+                }
+                case ACK: {
+                    int eventID = reader.readVarInt();
+                    int subID = reader.readVarInt();
+                    IntSet left = replayedPending.get(eventID);
+                    if (left != null)
+                        left.remove(subID);
+                    break;
+                }
+                default:
+                    throw new IOException("Unknown log record type " + type + " at position " + position + ".");
+            }
+            position += 8 + length;
+        }
+        // a record cut short by a crash is dropped so new records follow the last complete one
+        if (position < size)
+            channel.truncate(position);
+    }
+
+    private static byte[] offsetRecord(List<long[]> offsets) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        WireCodec.writeVarInt(out, offsets.size());
+        for (long[] offset : offsets) {
+            WireCodec.writeVarInt(out, (int) offset[0]);
+            WireCodec.writeVarInt(out, (int) offset[1]);
+            WireCodec.writeVarLong(out, offset[2]);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static byte[] ints(int... values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (int value : values)
+            WireCodec.writeVarInt(out, value);
+        return bytes.toByteArray();
+    }
+}
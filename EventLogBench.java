@@ -0,0 +1,127 @@
+package edu.rit.cs;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the event log: how many events a second are made durable while many threads publish, and how long
+ * a server takes to recover the events still pending from the files. Every other event is acknowledged by all
+ * its recipients, as after a partial delivery, and the recovery must find exactly the other ones. Run it with
+ * java -cp target/project2-1.0-SNAPSHOT.jar edu.rit.cs.EventLogBench [threads] [events per thread] [directory]
+ * The directory must be empty or missing. By default a temporary directory is used and deleted at the end.
+ * It exits with 1 on a failure.
+ */
+public class EventLogBench {
+
+    public static final int DEFAULT_THREADS = 32;
+    public static final int DEFAULT_EVENTS = 10000;
+    private static final long SEGMENT_BYTES = 8L << 20;
+    private static final int[] RECIPIENTS = {1, 2, 3};
+
+    /**
+     * Counts the events recovered from the log.
+     */
+    private static class Recovered implements EventLog.Listener {
+        int events;
+        int pending;
+        boolean recipientsKept = true;
+
+        public void recoverTopic(Topic topic) {
+        }
+
+        public void recoverClient(int subID) {
+        }
+
+        public void recoverSubscription(int subID, int topicID, boolean subscribed) {
+        }
+
+        public void recoverKeyword(int subID, String keyword, boolean subscribed) {
+        }
+
+        public void recoverEvent(EventEnvelope event, int[] pendingRecipients) {
+            events++;
+            if (pendingRecipients.length > 0) {
+                pending++;
+                recipientsKept &= event.getID() % 2 == 1 && pendingRecipients.length == RECIPIENTS.length;
+            }
+        }
+
+        public void recoverOffset(int subID, int topicID, long offset) {
+        }
+    }
+
+    /**
+     * Appends events from many threads, then recovers them.
+     * @param args number of threads, events per thread and directory, optional
+     * @throws Exception if the log can't be written or read
+     */
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_THREADS;
+        final int events = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_EVENTS;
+        boolean temporary = args.length < 3;
+        File directory = temporary ? Files.createTempDirectory("pubsub-bench").toFile() : new File(args[2]);
+        String[] existing = directory.list();
+        if (existing != null && existing.length > 0) {
+            System.out.println(directory + " is not empty.");
+            System.exit(1);
+        }
+
+        final EventLog log = new EventLog(directory, SEGMENT_BYTES);
+        log.recover(new Recovered());
+        final AtomicInteger nextID = new AtomicInteger();
+        final IOException[] failed = new IOException[1];
+        Thread[] writers = new Thread[threads];
+        long started = System.nanoTime();
+        for (int thread = 0; thread < threads; thread++) {
+            writers[thread] = new Thread(() -> {
+                try {
+                    for (int index = 0; index < events; index++) {
+                        int eventID = nextID.incrementAndGet();
+                        EventEnvelope event = new EventEnvelope(eventID, 1, eventID, "event " + eventID,
+                                "content of the event", new String[] {"bench", "log"});
+                        //a publish returns once its event is on disk
+                        log.awaitDurable(log.writeEvent(event, RECIPIENTS));
+                        if (eventID % 2 == 0) {
+                            for (int subID : RECIPIENTS)
+                                log.appendAck(eventID, subID);
+                            log.completed(eventID);
+                        }
+                    }
+                } catch (IOException e) {
+                    failed[0] = e;
+                }
+            }, "writer-" + thread);
+            writers[thread].start();
+        }
+        for (Thread writer : writers)
+            writer.join();
+        long appendNanos = System.nanoTime() - started;
+        if (failed[0] != null)
+            throw failed[0];
+        int total = nextID.get();
+        System.out.printf("Appended %d events with %d recipients from %d threads in %d ms: %.0f durable events/s,"
+                + " %d segments of %d MB%n", total, RECIPIENTS.length, threads, appendNanos / 1000000,
+                total * 1e9 / appendNanos, log.segmentCount(), SEGMENT_BYTES >> 20);
+
+        long bytes = 0;
+        for (File file : directory.listFiles())
+            bytes += file.length();
+        Recovered recovered = new Recovered();
+        started = System.nanoTime();
+        new EventLog(directory, SEGMENT_BYTES).recover(recovered);
+        long recoverNanos = System.nanoTime() - started;
+        System.out.printf("Recovered %d pending events of %d read (%.1f MB) in %d ms%n", recovered.pending,
+                recovered.events, bytes / 1048576.0, recoverNanos / 1000000);
+
+        boolean passed = recovered.pending == (total + 1) / 2 && recovered.recipientsKept;
+        System.out.println(passed ? "Every unacknowledged event was recovered." : "FAIL expected "
+                + (total + 1) / 2 + " pending events with all their recipients.");
+        if (temporary) {
+            for (File file : directory.listFiles())
+                file.delete();
+            directory.delete();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+}
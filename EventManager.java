@@ -1,53 +1,207 @@
 package edu.rit.cs;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.IOException;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.LinkedList;
 import java.util.Scanner;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
  * This class handles all server operations and majorly helps to notify about events and advertise Topics.
  */
-public class EventManager extends UnicastRemoteObject implements EventInterface{
+public class EventManager extends UnicastRemoteObject implements ClusterPeer{
 
     private static final long serialVersionUID = 1L;
-    //counters used to assign Unique IDs
-    protected int topicID = 0;
-    protected Integer subID = 0;
-    protected Integer eventID = 0;
-    protected LinkedHashSet<SubscriberManager> subsAndTopics ;
-    //Events are stored here while they continue to try to contact a missing subscriber
-    protected LinkedList<Event> pendingEvents;
-    protected LinkedList<Topic> pendingTopics;
+    // Number of locks that topic names are spread over when topics are added
+    private static final int TOPIC_LOCKS = 64;
+    // Wait before a long poll looks again at events it could not hand out, doubled up to the maximum
+    private static final long POLL_RETRY_MILLIS = 10;
+    private static final long POLL_RETRY_MAX_MILLIS = 1000;
+    //counters used to assign Unique IDs, shared by every thread without a lock
+    protected AtomicInteger topicID = new AtomicInteger();
+    protected AtomicInteger subID = new AtomicInteger();
+    protected AtomicInteger eventID = new AtomicInteger();
+    // Topics whose names fall on different locks can be added at the same time
+    private final Object[] topicLocks;
+    // Indexes the topics by ID and by name so they are found without scanning
+    protected TopicRegistry topics;
+    //Events wait in per-subscriber queues here until the subscriber can be reached
+    protected DeliveryEngine delivery;
+    // Shards owning a slice of the topics each, NULL when every topic is handled by the calling threads
+    protected BrokerShard[] shards;
+    // How far every agent got in every topic, one cursor per agent and topic
+    protected OffsetTable offsets;
+    // Number of delivered events every topic keeps for replays
+    private int retention;
 
     // Maps from the name of a keyword to the ID of the clients that receive those keyword events
     // in order to allow for efficient content-filtering
-    protected HashMap<String, LinkedHashSet<Integer>> contentFilter;
+    protected KeywordIndex contentFilter;
     protected ArrayList<Integer> agents;
     // Maps from the ID of a client to the actual RMI object of the client
     // This allows the client to leave and come back later without
     //changing the unique identifier
-    protected HashMap<Integer, Subscriber> clientBinding;
+    protected ClientTable clientBinding;
+    // Keeps undelivered events on disk across restarts, NULL when the server runs in memory only
+    protected EventLog eventLog;
+    // The other servers and which topics each of them owns, a cluster of one when running alone
+    protected ClusterNode cluster;
+    // Maps from the ID of a pulling agent to the object its long polls wait on
+    private ConcurrentHashMap<Integer, Object> pollers = new ConcurrentHashMap<>();
+    // Maps from the ID of an agent that uses flow control to the events it may still be sent
+    private ConcurrentHashMap<Integer, AtomicInteger> creditWindows = new ConcurrentHashMap<>();
 
     /**
      * Constructor of the class
      * @throws RemoteException
      */
     public EventManager() throws RemoteException {
-        subsAndTopics = new LinkedHashSet<>();
-        pendingEvents = new LinkedList<>();
-        pendingTopics = new LinkedList<>();
-        contentFilter = new HashMap<>();
-        clientBinding = new HashMap<>();
+        this(null);
+    }
+
+    /**
+     * Constructor of the class that keeps its state in an event log and recovers it from there.
+     * @param logDirectory directory of the event log, or NULL to keep everything in memory
+     * @throws RemoteException if the log can't be opened or read
+     */
+    public EventManager(File logDirectory) throws RemoteException {
+        this(logDirectory, Integer.getInteger("pubsub.shards", 0));
+    }
+
+    /**
+     * Constructor of the class that splits the topics over shards, each changing the subscribers of its
+     * topics on a single thread and delivering their events with its own workers.
+     * @param logDirectory directory of the event log, or NULL to keep everything in memory
+     * @param shardCount number of shards, usually one per core, or 0 to handle topics on the calling threads
+     * @throws RemoteException if the log can't be opened or read
+     */
+    public EventManager(File logDirectory, int shardCount) throws RemoteException {
+        this(logDirectory, shardCount, ClusterNode.single(Server.DEFAULT_NAME));
+    }
+
+    /**
+     * Constructor of the class for one server of a cluster. It owns the topics whose names fall on it and
+     * forwards the calls about the other topics to their owners.
+     * @param logDirectory directory of the event log, or NULL to keep everything in memory
+     * @param shardCount number of shards, usually one per core, or 0 to handle topics on the calling threads
+     * @param cluster place of this server in the cluster
+     * @throws RemoteException if the log can't be opened or read
+     */
+    public EventManager(File logDirectory, int shardCount, ClusterNode cluster) throws RemoteException {
+        this.cluster = cluster;
+        topics = new TopicRegistry();
+        topicLocks = new Object[TOPIC_LOCKS];
+        for (int index = 0; index < TOPIC_LOCKS; index++)
+            topicLocks[index] = new Object();
+        offsets = new OffsetTable();
+        retention = Integer.getInteger("pubsub.retention.events", TopicLog.DEFAULT_RETENTION);
+        int workerCount = Integer.getInteger("pubsub.delivery.workers", DeliveryEngine.DEFAULT_WORKERS);
+        int maxBatch = Integer.getInteger("pubsub.batch.max", DeliveryEngine.DEFAULT_MAX_BATCH);
+        int lingerMillis = Integer.getInteger("pubsub.batch.lingerMillis", DeliveryEngine.DEFAULT_LINGER_MILLIS);
+        int maxQueued = Integer.getInteger("pubsub.queue.max", DeliveryEngine.DEFAULT_MAX_QUEUED);
+        DeliveryEngine.Overflow overflow = DeliveryEngine.Overflow.parse(System.getProperty("pubsub.overflow", "buffer"));
+        File spillDirectory = new File(System.getProperty("pubsub.spill.dir", new File(System.getProperty("java.io.tmpdir"),
+                "pubsub-spill-" + ProcessHandle.current().pid()).getPath()));
+        delivery = new DeliveryEngine(this, workerCount, maxBatch, lingerMillis, maxQueued, overflow, spillDirectory);
+        if (shardCount > 0) {
+            shards = new BrokerShard[shardCount];
+            for (int index = 0; index < shardCount; index++) {
+                shards[index] = new BrokerShard(index, new DeliveryEngine(this, Math.max(1, workerCount / shardCount),
+                        maxBatch, lingerMillis, maxQueued, overflow, new File(spillDirectory, "shard-" + index)));
+            }
+        }
+        contentFilter = new KeywordIndex();
+        clientBinding = new ClientTable();
         agents = new ArrayList<>();
+        if (logDirectory != null) {
+            try {
+                eventLog = new EventLog(logDirectory, EventLog.DEFAULT_SEGMENT_BYTES);
+                eventLog.checkCluster(cluster.getView(), cluster.getIndex());
+                eventLog.setCheckpoint(new EventLog.Checkpoint() {
+                    public List<long[]> offsets() {
+                        ArrayList<long[]> result = offsets.committedOffsets();
+                        for (SubscriberManager sAT : topics.managers()) {
+                            long next = sAT.getLog().getNextOffset();
+                            if (next > 0)
+                                result.add(new long[] {0, sAT.getTopic().getTopicID(), next});
+                        }
+                        return result;
+                    }
+                });
+                recover();
+            } catch (IOException e) {
+                throw new RemoteException("Could not open the event log.", e);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds topics, clients, subscriptions and the queues of undelivered events from the event log.
+     * @throws IOException if the log can't be read
+     */
+    private void recover() throws IOException {
+        final long start = System.currentTimeMillis();
+        final int[] recovered = new int[1];
+        eventLog.recover(new EventLog.Listener() {
+            public void recoverTopic(Topic topic) {
+                topics.add(new SubscriberManager(topic, retention));
+                topicID.set(Math.max(topicID.get(), cluster.getView().sequenceOf(topic.getTopicID())));
+            }
+
+            public void recoverClient(int ID) {
+                clientBinding.put(ID, null);
+                subID.set(Math.max(subID.get(), cluster.getView().sequenceOf(ID)));
+            }
+
+            public void recoverSubscription(int ID, int topic, boolean subscribed) {
+                if (topic == 0) {
+                    for (SubscriberManager sAT : topics.managers())
+                        sAT.removeSubscriber(ID);
+                    contentFilter.removeAll(ID);
+                    return;
+                }
+                SubscriberManager sAT = topics.get(topic);
+                if (sAT != null && subscribed)
+                    sAT.addSubscriber(ID);
+                else if (sAT != null)
+                    sAT.removeSubscriber(ID);
+            }
+
+            public void recoverKeyword(int ID, String keyword, boolean subscribed) {
+                if (subscribed)
+                    contentFilter.add(ID, keyword);
+                else
+                    contentFilter.remove(ID, keyword);
+            }
+
+            public void recoverEvent(EventEnvelope event, int[] pendingRecipients) {
+                eventID.set(Math.max(eventID.get(), cluster.getView().sequenceOf(event.getID())));
+                SubscriberManager sAT = topics.get(event.getTopicID());
+                if (sAT == null)
+                    return;
+                sAT.getLog().restore(event, pendingRecipients.length);
+                for (int ID : pendingRecipients)
+                    deliveryFor(event.getTopicID()).enqueue(ID, event);
+                if (pendingRecipients.length > 0)
+                    recovered[0]++;
+            }
+
+            public void recoverOffset(int ID, int topic, long offset) {
+                SubscriberManager sAT = topics.get(topic);
+                if (ID != 0)
+                    offsets.commit(ID, topic, offset);
+                else if (sAT != null)
+                    sAT.getLog().advanceTo(offset);
+            }
+        });
+        System.out.println("Recovered " + topics.size() + " topics and " + recovered[0] + " undelivered events in "
+                + (System.currentTimeMillis() - start) + " ms.");
     }
 
     /**
@@ -58,13 +212,26 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
      * @throws RemoteException
      */
     public int connect(Subscriber sub) throws RemoteException {
-        synchronized (clientBinding) {
-            subID += 1;
-            clientBinding.put(subID, sub);
-            return subID;
-        }
-
+        int ID = cluster.makeID(subID.incrementAndGet());
+        clientBinding.put(ID, sub);
+        logClient(ID);
+        return ID;
+    }
 
+    /**
+     * Writes a new client to the event log, if there is one.
+     *
+     * @param ID unique ID of the agent
+     * @throws RemoteException if the log can't be written
+     */
+    private void logClient(int ID) throws RemoteException {
+        if (eventLog == null)
+            return;
+        try {
+            eventLog.appendClient(ID);
+        } catch (IOException e) {
+            throw new RemoteException("Could not write to the event log.", e);
+        }
     }
 
     /**
@@ -75,10 +242,40 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
      * @return unique ID given on first connection
      * @throws RemoteException
      */
-    public int reConnect(Integer ID, Subscriber sub) throws RemoteException {
-        synchronized (clientBinding) {
+    public int reConnect(final Integer ID, final Subscriber sub) throws RemoteException {
+        // an ID this server never handed out gets a new one
+        if (ID == null || ID <= 0 || (cluster.isHome(ID) && cluster.getView().sequenceOf(ID) > subID.get()))
+            return connect(sub);
+        bindClient(ID, sub);
+        if (cluster.isHome(ID)) {
+            // the owners of its topics deliver to it directly, so they need its new RMI object too
+            cluster.broadcast(new ClusterNode.PeerCall<Void>() {
+                public Void call(ClusterPeer peer) throws RemoteException {
+                    peer.bindClient(ID, sub);
+                    return null;
+                }
+            });
+        }
+        return ID;
+    }
+
+    /**
+     * Binds an agent here, whether this is its home server or not, and sends what is waiting for it.
+     *
+     * @param ID unique ID of the agent
+     * @param sub RMI object of the agent, or NULL when it goes offline
+     * @throws RemoteException if the event log can't be written
+     */
+    public void bindClient(int ID, Subscriber sub) throws RemoteException {
+        if (!clientBinding.contains(ID)) {
             clientBinding.put(ID, sub);
-            return ID;
+            logClient(ID);
+        } else {
+            clientBinding.put(ID, sub);
+        }
+        if (sub != null) {
+            for (DeliveryEngine engine : deliveryEngines())
+                engine.online(ID);
         }
     }
 
@@ -87,9 +284,15 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
      *
      * @param ID
      */
-    public void unbind(Integer ID) {
-        synchronized (clientBinding) {
-            clientBinding.put(ID, null);
+    public void unbind(final Integer ID) {
+        clientBinding.put(ID, null);
+        if (cluster.isHome(ID)) {
+            cluster.broadcast(new ClusterNode.PeerCall<Void>() {
+                public Void call(ClusterPeer peer) throws RemoteException {
+                    peer.bindClient(ID, null);
+                    return null;
+                }
+            });
         }
     }
 
@@ -100,159 +303,428 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
      * @return
      */
     public Subscriber getSubscriber(Integer ID) {
-
         return clientBinding.get(ID);
     }
 
 
     /**
-     * This function notifies events all the offline subscribers when they reconnect with the server.
+     * This function starts retrying the deliveries that failed, each subscriber on its own back off.
+     * Offline subscribers are sent their events and advertisements as soon as they reconnect.
      */
     public void startService() {
+        for (DeliveryEngine engine : deliveryEngines())
+            engine.start();
+    }
+
+    /**
+     * Returns the shard owning a topic.
+     * @param topicID unique ID of the topic
+     * @return shard of the topic, or NULL when the server is not sharded
+     */
+    private BrokerShard shardFor(int topicID) {
+        if (shards == null)
+            return null;
+        return shards[(cluster.getView().sequenceOf(topicID) & 0x7fffffff) % shards.length];
+    }
 
-        Thread t = new Thread(new Runnable() {
-            public void run() {
-                while (true) {
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e1) {
+    /**
+     * Returns the delivery engine that sends the events of a topic.
+     * @param topicID unique ID of the topic
+     * @return delivery engine
+     */
+    private DeliveryEngine deliveryFor(int topicID) {
+        BrokerShard shard = shardFor(topicID);
+        return shard == null ? delivery : shard.getDelivery();
+    }
 
-                    }
-                    synchronized (pendingEvents) {
-                        while (pendingEvents.isEmpty()) {
-                            try {
-                                pendingEvents.wait();
-                            } catch (Exception e) {
+    /**
+     * Returns every delivery engine, the one sending advertisements first.
+     * @return list of delivery engines
+     */
+    private ArrayList<DeliveryEngine> deliveryEngines() {
+        ArrayList<DeliveryEngine> engines = new ArrayList<>();
+        engines.add(delivery);
+        if (shards != null) {
+            for (BrokerShard shard : shards)
+                engines.add(shard.getDelivery());
+        }
+        return engines;
+    }
 
-                            }
-                        }
-                        Iterator<Event> eventIterator = pendingEvents.iterator();
-                        while (eventIterator.hasNext()) {
-                            Event e = eventIterator.next();
-                            if (notifySubs(e) == 0)
-                                eventIterator.remove();
-                        }
-                    }
+    /**
+     * Runs a task on the shard owning a topic, or on the calling thread when the server is not sharded.
+     * @param topicID unique ID of the topic
+     * @param task work touching the subscribers of the topic
+     * @param <T> type of the result
+     * @return result of the task
+     * @throws RemoteException if the task fails
+     */
+    private <T> T onShard(int topicID, Callable<T> task) throws RemoteException {
+        BrokerShard shard = shardFor(topicID);
+        if (shard != null)
+            return shard.call(task);
+        try {
+            return task.call();
+        } catch (RemoteException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RemoteException(e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Function to give the event the next offset of its topic and hand it to the delivery engine for every
+     * subscriber. The remote calls are made later by the delivery workers. With an event log the event is
+     * on disk before it is queued. Events of a topic are queued in offset order.
+     * @param event details of the event
+     * @param recipients IDs of the agents to notify
+     * @return return the number of agents the event was queued for
+     * @throws RemoteException if the event log can't be written
+     */
+    public int notifySubs(Event event, int[] recipients) throws RemoteException {
+        return notifySubs(Collections.singletonList(event), new int[][] {recipients});
+    }
+
+    /**
+     * Function to give several events of one topic the next offsets of the topic, in the order of the list,
+     * and hand them to the delivery engine together. With an event log they share one wait for the disk.
+     * @param events details of the events, all of the same topic
+     * @param recipients IDs of the agents to notify of each event
+     * @return return the number of agents the events were queued for, counted once per event
+     * @throws RemoteException if the event log can't be written
+     */
+    public int notifySubs(List<Event> events, int[][] recipients) throws RemoteException {
+        SubscriberManager sAT = topics.get(events.get(0).getTopic().getTopicID());
+        if (sAT == null)
+            return 0;
+        TopicLog log = sAT.getLog();
+        long sequence = 0;
+        try {
+            synchronized (log) {
+                for (int index = 0; index < events.size(); index++) {
+                    EventEnvelope envelope = events.get(index).toEnvelope(log.getNextOffset());
+                    if (eventLog != null)
+                        sequence = eventLog.writeEvent(envelope, recipients[index]);
+                    log.append(envelope, recipients[index], sequence);
                 }
             }
-        });
+            // publishers of the same topic share the wait for the disk, the first one done queues for all
+            if (eventLog != null)
+                eventLog.awaitDurable(sequence);
+        } catch (IOException e) {
+            throw new RemoteException("Could not write to the event log.", e);
+        }
+        log.release(sequence, deliveryFor(sAT.getTopic().getTopicID()));
+        int count = 0;
+        for (int[] agents : recipients) {
+            wakePollers(agents);
+            count += agents.length;
+        }
+        return count;
+    }
 
+    /**
+     * Wakes up the long polls of agents that have new events waiting.
+     * @param recipients IDs of the agents
+     */
+    private void wakePollers(int[] recipients) {
+        if (!pollers.isEmpty()) {
+            for (int subID : recipients) {
+                Object signal = pollers.get(subID);
+                if (signal != null) {
+                    synchronized (signal) {
+                        signal.notifyAll();
+                    }
+                }
+            }
+        }
+    }
 
-        //Daemon allows this thread not to block program from exiting
-        t.setDaemon(true);
-        t.start();
+    /**
+     * Hands the waiting events of an agent to the agent itself, waiting for some to arrive if there are none.
+     * The events handed out by the previous poll are acknowledged first, so an agent that loses a reply gets
+     * the same events again.
+     *
+     * @param subID unique ID of the agent
+     * @param maxEvents most events to return
+     * @param timeoutMillis longest time to wait for an event, 0 to return at once
+     * @return events in the order they were published, empty if none arrived in time
+     * @throws RemoteException
+     */
+    public EventBatch poll(Integer subID, int maxEvents, long timeoutMillis) throws RemoteException {
+        ArrayList<EventEnvelope> events = new ArrayList<>();
+        if (subID == null || !clientBinding.contains(subID) || maxEvents <= 0)
+            return new EventBatch(events);
+        ArrayList<DeliveryEngine> engines = deliveryEngines();
+        for (DeliveryEngine engine : engines)
+            engine.acknowledge(subID);
+        Object signal = pollers.get(subID);
+        if (signal == null) {
+            pollers.putIfAbsent(subID, new Object());
+            signal = pollers.get(subID);
+        }
+        long deadline = System.currentTimeMillis() + Math.max(0, timeoutMillis);
+        long retryMillis = POLL_RETRY_MILLIS;
+        while (true) {
+            int before = pendingCount(engines, subID);
+            for (DeliveryEngine engine : engines)
+                engine.fetch(subID, maxEvents - events.size(), events);
+            long remaining = deadline - System.currentTimeMillis();
+            if (!events.isEmpty() || remaining <= 0)
+                break;
+            synchronized (signal) {
+                int waiting = pendingCount(engines, subID);
+                if (waiting > before)
+                    continue; //arrived since the fetch
+                long wait = remaining;
+                if (waiting > 0) {
+                    // the events there could not be handed out, as when their spill file can't be read or
+                    // another call holds the queue, so they are looked at again later instead of right away
+                    wait = Math.min(remaining, retryMillis);
+                    retryMillis = Math.min(retryMillis * 2, POLL_RETRY_MAX_MILLIS);
+                }
+                try {
+                    signal.wait(wait);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+        return new EventBatch(events);
     }
 
+    private static int pendingCount(ArrayList<DeliveryEngine> engines, int subID) {
+        int waiting = 0;
+        for (DeliveryEngine engine : engines)
+            waiting += engine.pendingCount(subID);
+        return waiting;
+    }
 
     /**
-     * This function helps advertise the topics to offline agents when they come online again
+     * Called by the delivery engine once a subscriber has received an event. It moves the cursor of the
+     * subscriber in the topic of the event, a replayed copy it already received is not counted again.
+     * @param event envelope of the event
+     * @param subID unique ID of the agent
      */
-    public void startServiceAds() {
+    public void eventDelivered(EventEnvelope event, int subID) {
+        if (offsets.delivered(subID, event.getTopicID(), event.getOffset()))
+            countDelivery(event, subID);
+    }
 
-        Thread t = new Thread(new Runnable() {
-            public void run() {
-                while (true) {
-                    try {
-                        Thread.sleep(1000);
-                    } catch (InterruptedException e1) {
+    /**
+     * Called by the delivery engine when an event was dropped because the subscriber could not keep up.
+     * The subscriber no longer counts as a recipient, but its committed offset stays before the event.
+     * @param event envelope of the event
+     * @param subID unique ID of the agent
+     */
+    public void eventDropped(EventEnvelope event, int subID) {
+        if (offsets.skipped(subID, event.getTopicID(), event.getOffset()))
+            countDelivery(event, subID);
+    }
 
-                    }
-                    synchronized (pendingTopics) {
-                        while (pendingTopics.isEmpty()) {
-                            try {
-                                pendingTopics.wait();
-                            } catch (Exception e) {
+    /**
+     * Counts one recipient of an event as done, letting the event log forget the event after the last one.
+     * @param event envelope of the event
+     * @param subID unique ID of the agent
+     */
+    private void countDelivery(EventEnvelope event, int subID) {
+        SubscriberManager sAT = topics.get(event.getTopicID());
+        boolean done = sAT != null && sAT.getLog().delivered(event.getOffset());
+        if (eventLog == null)
+            return;
+        try {
+            eventLog.appendAck(event.getID(), subID);
+        } catch (IOException e) {
+            //the event is only sent again to this subscriber after a restart
+            System.err.println("Could not write to the event log: " + e.getMessage());
+        }
+        if (done)
+            eventLog.completed(event.getID());
+    }
 
-                            }
-                        }
-                        Iterator<Topic> topicIterator = pendingTopics.iterator();
-                        while (topicIterator.hasNext()) {
-                            Topic t = topicIterator.next();
-                            if (notifyAgents(t) == 0)
-                                topicIterator.remove();
-                        }
-                    }
-                }
+    /**
+     * Allows the server to send an agent more events. An agent that never grants credits is sent events
+     * without limit; after its first grant it is sent only as many events as it granted in total, and
+     * granting -1 turns the limit off again. Every server delivering to the agent keeps its own credits.
+     *
+     * @param subID unique ID of the agent
+     * @param credits number of further events the agent can take, or -1 for no limit
+     * @return True if successful, False if the agent is unknown
+     */
+    public boolean grantCredits(Integer subID, int credits) {
+        if (subID == null || !clientBinding.contains(subID))
+            return false;
+        if (credits < 0) {
+            creditWindows.remove(subID);
+        } else {
+            AtomicInteger window = creditWindows.get(subID);
+            if (window == null) {
+                creditWindows.putIfAbsent(subID, new AtomicInteger());
+                window = creditWindows.get(subID);
             }
-        });
+            window.addAndGet(credits);
+        }
+        for (DeliveryEngine engine : deliveryEngines())
+            engine.resume(subID);
+        return true;
+    }
 
+    /**
+     * Takes credits of an agent before sending it a batch.
+     * @param subID unique ID of the agent
+     * @param wanted number of events about to be sent
+     * @return number of events that may be sent, wanted when the agent uses no flow control
+     */
+    public int takeCredits(int subID, int wanted) {
+        AtomicInteger window = creditWindows.get(subID);
+        if (window == null)
+            return wanted;
+        while (true) {
+            int available = window.get();
+            int taken = Math.min(available, wanted);
+            if (taken <= 0 || window.compareAndSet(available, available - taken))
+                return Math.max(taken, 0);
+        }
+    }
+
+    /**
+     * Gives back the credits taken for events that were not sent after all.
+     * @param subID unique ID of the agent
+     * @param credits number of credits
+     */
+    public void returnCredits(int subID, int credits) {
+        AtomicInteger window = creditWindows.get(subID);
+        if (window != null)
+            window.addAndGet(credits);
+    }
 
-        //Daemon allows this thread not to block program from exiting
-        t.setDaemon(true);
-        t.start();
+    /**
+     * Checks if an agent may be sent at least one event.
+     * @param subID unique ID of the agent
+     * @return true if it has credits or uses no flow control
+     */
+    public boolean hasCredits(int subID) {
+        AtomicInteger window = creditWindows.get(subID);
+        return window == null || window.get() > 0;
     }
 
+    /**
+     * Unbinds an agent from this server because it could not keep up with its events. It gets events again
+     * once it reconnects, and can replay what was dropped from its committed offsets.
+     * @param subID unique ID of the agent
+     */
+    public void disconnectSlow(int subID) {
+        if (clientBinding.get(subID) != null) {
+            clientBinding.put(subID, null);
+            System.err.println("Disconnected agent " + subID + ", it could not keep up.");
+        }
+    }
 
     /**
-     * Function to notify the subscribers about the event
-     * @param event details of the event
-     * @return return the number of agents left to notify
+     * Sets the offset an agent resumes a topic from, on the server owning the topic.
+     *
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic
+     * @param offset offset of the first event the agent has not processed
+     * @return True if successful, False if the topic or agent is unknown
+     * @throws RemoteException
      */
-    public int notifySubs(Event event){
-        Iterator<Integer> subsIterator = event.iterator();
-        while (subsIterator.hasNext()) {
-            try {
-                Integer subID = subsIterator.next();
-                if (clientBinding.get(subID) != null) {
-                    clientBinding.get(subID).notify(event);
-                    subsIterator.remove();
+    public boolean commitOffset(final Integer subID, final int topicID, final long offset) throws RemoteException {
+        if (!cluster.owns(topicID)) {
+            return cluster.call(cluster.getView().nodeOf(topicID), new ClusterNode.PeerCall<Boolean>() {
+                public Boolean call(ClusterPeer peer) throws RemoteException {
+                    return peer.commitOffset(subID, topicID, offset);
                 }
-            } catch(RemoteException e) { } //Do nothing on remote exception, try again later
+            });
+        }
+        if (subID == null || !clientBinding.contains(subID) || topics.get(topicID) == null || offset < 0)
+            return false;
+        offsets.commit(subID, topicID, offset);
+        if (eventLog != null) {
+            try {
+                eventLog.appendCommit(subID, topicID, offset);
+            } catch (IOException e) {
+                throw new RemoteException("Could not write to the event log.", e);
+            }
         }
-        //when this returns 0, we know every subscriber has received the message
-        int pending = event.clientsLeft();
-        return pending;
+        return true;
     }
 
+    /**
+     * Returns the offset an agent resumes a topic from.
+     *
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic
+     * @return offset, or -1 if the agent never received or committed anything in the topic
+     * @throws RemoteException
+     */
+    public long getCommittedOffset(final Integer subID, final int topicID) throws RemoteException {
+        if (!cluster.owns(topicID)) {
+            return cluster.call(cluster.getView().nodeOf(topicID), new ClusterNode.PeerCall<Long>() {
+                public Long call(ClusterPeer peer) throws RemoteException {
+                    return peer.getCommittedOffset(subID, topicID);
+                }
+            });
+        }
+        if (subID == null)
+            return -1;
+        return offsets.committed(subID, topicID);
+    }
 
     /**
-     * Notify all agents about the advertised topic
+     * Sends an agent the retained events of a topic again, oldest first, through its usual queue so they
+     * are pushed or polled like new events. Events older than the oldest retained one are gone.
      *
-     * @param topic details of the advertised topic
-     * @return number of agents left to notify.
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic
+     * @param offset offset to start from, or -1 to resume from the committed offset
+     * @return number of events queued
+     * @throws RemoteException
      */
-    public int notifyAgents(Topic topic){
-        Iterator<Integer> agentIterator = topic.iterator();
-        while (agentIterator.hasNext()) {
-            try {
-                Integer agentID = agentIterator.next();
-                if (clientBinding.get(agentID) != null) {
-                    clientBinding.get(agentID).notifyAd(topic);
-                    agentIterator.remove();
+    public int replay(final Integer subID, final int topicID, final long offset) throws RemoteException {
+        if (!cluster.owns(topicID)) {
+            return cluster.call(cluster.getView().nodeOf(topicID), new ClusterNode.PeerCall<Integer>() {
+                public Integer call(ClusterPeer peer) throws RemoteException {
+                    return peer.replay(subID, topicID, offset);
                 }
-            } catch(RemoteException e) { } //Do nothing on remote exception, try again later
+            });
         }
-        //when this returns 0, we know every subscriber has received the message
-        int pending = topic.agentsLeft();
-        return pending;
+        SubscriberManager sAT = topics.get(topicID);
+        if (subID == null || !clientBinding.contains(subID) || sAT == null)
+            return 0;
+        long from = offset < 0 ? offsets.committed(subID, topicID) : offset;
+        if (from < 0)
+            return 0;
+        TopicLog log = sAT.getLog();
+        DeliveryEngine engine = deliveryFor(topicID);
+        int count;
+        // nothing of the topic is queued between the replayed events
+        synchronized (log) {
+            ArrayList<EventEnvelope> events = log.read(from, Integer.MAX_VALUE);
+            for (EventEnvelope event : events)
+                engine.enqueue(subID, event);
+            count = events.size();
+        }
+        wakePollers(new int[] {subID});
+        return count;
     }
 
 
     /**
-     * Function that handles or initiates the advertising process
+     * Function that handles or initiates the advertising process.
+     * The topic is queued for every agent whose home is this server and sent by the delivery workers.
      *
      * @param topic details of the topic
      * @return Unique ID of the topic
      * @throws RemoteException
      */
     public int advertise(Topic topic) throws RemoteException {
-        synchronized (clientBinding) {
-            Iterator it = clientBinding.entrySet().iterator();
-            while (it.hasNext()) {
-                HashMap.Entry pair = (HashMap.Entry)it.next();
-               // System.out.println(pair.getKey() + " = " + pair.getValue());
-                topic.addAgents((Integer) pair.getKey());
-                it.remove(); // avoids a ConcurrentModificationException
-            }
-
-            if ( notifyAgents(topic) > 0) {
-                synchronized (pendingTopics) {
-                    pendingTopics.add(topic);
-                    pendingTopics.notifyAll();
-                }
-            }
-            return topicID;
+        for (int agentID : clientBinding.ids()) {
+            if (cluster.isHome(agentID))
+                delivery.enqueueAd(agentID, topic);
         }
+        return topic.getTopicID();
     }
 
 
@@ -263,34 +735,110 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
      * @return unique ID of the Event
      * @throws RemoteException
      */
-    public int publish(Event event) throws RemoteException {
+    public int publish(final Event event) throws RemoteException {
         if (event.getID() != 0) {
             System.err.println("Event has already been published.");
             return 0;
         }
-        synchronized (subsAndTopics) {
-            for(SubscriberManager sAT : subsAndTopics) {
-                Topic t1 = sAT.getTopic();
-                Topic t2 = event.getTopic();
-                if (t1.getTopicID() == t2.getTopicID()) {
-                    eventID +=1;
-                    event.setID(eventID);
-                    event.addSubscriberList(sAT.getSubscribers());
-                    String[] eventKeywords = event.getKeywords();
-                    for(String key : eventKeywords )
-                        event.addSubscriberList(contentFilter.get(key) );
-                    if (notifySubs(event) > 0) {
-                        synchronized (pendingEvents) {
-                            pendingEvents.add(event);
-                            pendingEvents.notifyAll();
-                        }
-                    }
-                    return eventID;
+        final int topic = event.getTopic().getTopicID();
+        if (!cluster.owns(topic)) {
+            return cluster.call(cluster.getView().nodeOf(topic), new ClusterNode.PeerCall<Integer>() {
+                public Integer call(ClusterPeer peer) throws RemoteException {
+                    return peer.publish(event);
                 }
+            });
+        }
+        final SubscriberManager sAT = topics.get(topic);
+        if (sAT == null) {
+            System.err.println("Event topic not found.");
+            return 0;
+        }
+        // the ID and the recipients are taken on the shard of the topic, in the order events reach it
+        int[] recipients = onShard(sAT.getTopic().getTopicID(), new Callable<int[]>() {
+            public int[] call() {
+                event.setID(cluster.makeID(eventID.incrementAndGet()));
+                IntSet recipients = new IntSet(sAT.getSubscribers());
+                String[] eventKeywords = event.getKeywords();
+                for(String key : eventKeywords ) {
+                    recipients.addAll(contentFilter.subscribers(key));
+                }
+                return recipients.toArray();
             }
+        });
+        notifySubs(event, recipients);
+        return event.getID();
+    }
+
+    /**
+     * Publishes several events, possibly of different topics, in one call. The events of a topic get their
+     * IDs and recipients in one step on the shard of the topic and are queued together, in the order of the
+     * list. Events of topics owned by other servers are forwarded in one call per server.
+     *
+     * @param events details of the events being published
+     * @return unique IDs of the events in the order of the list, 0 for an event that was not published
+     * @throws RemoteException
+     */
+    public int[] publishBatch(final List<Event> events) throws RemoteException {
+        int[] ids = new int[events.size()];
+        // positions in the list of the events of every owned topic, and of every other server
+        LinkedHashMap<Integer, ArrayList<Integer>> owned = new LinkedHashMap<>();
+        HashMap<Integer, ArrayList<Integer>> forwarded = new HashMap<>();
+        for (int index = 0; index < events.size(); index++) {
+            Event event = events.get(index);
+            if (event == null || event.getTopic() == null)
+                continue;
+            if (event.getID() != 0) {
+                System.err.println("Event has already been published.");
+                continue;
+            }
+            int topic = event.getTopic().getTopicID();
+            if (cluster.owns(topic))
+                owned.computeIfAbsent(topic, key -> new ArrayList<>()).add(index);
+            else
+                forwarded.computeIfAbsent(cluster.getView().nodeOf(topic), key -> new ArrayList<>()).add(index);
         }
-        System.err.println("Event topic not found.");
-        return 0;
+        for (Map.Entry<Integer, ArrayList<Integer>> node : forwarded.entrySet()) {
+            final ArrayList<Event> batch = new ArrayList<>();
+            for (int index : node.getValue())
+                batch.add(events.get(index));
+            int[] result = cluster.call(node.getKey(), new ClusterNode.PeerCall<int[]>() {
+                public int[] call(ClusterPeer peer) throws RemoteException {
+                    return peer.publishBatch(batch);
+                }
+            });
+            for (int position = 0; position < result.length; position++)
+                ids[node.getValue().get(position)] = result[position];
+        }
+        for (Map.Entry<Integer, ArrayList<Integer>> topic : owned.entrySet()) {
+            final SubscriberManager sAT = topics.get(topic.getKey());
+            if (sAT == null) {
+                System.err.println("Event topic not found.");
+                continue;
+            }
+            final ArrayList<Event> batch = new ArrayList<>();
+            for (int index : topic.getValue())
+                batch.add(events.get(index));
+            int[][] recipients = onShard(topic.getKey(), new Callable<int[][]>() {
+                public int[][] call() {
+                    int first = eventID.addAndGet(batch.size()) - batch.size();
+                    int[] subscribers = sAT.getSubscribers();
+                    int[][] recipients = new int[batch.size()][];
+                    for (int index = 0; index < batch.size(); index++) {
+                        Event event = batch.get(index);
+                        event.setID(cluster.makeID(first + index + 1));
+                        IntSet agents = new IntSet(subscribers);
+                        for (String key : event.getKeywords())
+                            agents.addAll(contentFilter.subscribers(key));
+                        recipients[index] = agents.toArray();
+                    }
+                    return recipients;
+                }
+            });
+            notifySubs(batch, recipients);
+            for (int position = 0; position < batch.size(); position++)
+                ids[topic.getValue().get(position)] = batch.get(position).getID();
+        }
+        return ids;
     }
 
 
@@ -301,16 +849,78 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
      * @return unique ID of the topic
      * @throws RemoteException
      */
-    public int addTopic(Topic topic) throws RemoteException {
-        synchronized (subsAndTopics) {
-            if (topic != null) {
-                subsAndTopics.add(new SubscriberManager(topic));
-                topicID += 1;
-                topic.setTopicID(topicID);
-                advertise(topic);
-                return topicID;
-            }
+    public int addTopic(final Topic topic) throws RemoteException {
+        if (topic == null)
             return 0;
+        int owner = cluster.getView().ownerOf(topic.getTopicName());
+        if (owner == cluster.getIndex())
+            return addOwnedTopic(topic);
+        return cluster.call(owner, new ClusterNode.PeerCall<Integer>() {
+            public Integer call(ClusterPeer peer) throws RemoteException {
+                return peer.addOwnedTopic(topic);
+            }
+        });
+    }
+
+    /**
+     * Adding a topic whose name this server owns and telling the other servers about it.
+     *
+     * @param topic details of the topic
+     * @return unique ID of the topic, 0 if the name is taken
+     * @throws RemoteException if the event log can't be written
+     */
+    public int addOwnedTopic(final Topic topic) throws RemoteException {
+        int uniqueID;
+        // only topics with the same name need to wait for each other
+        String key = TopicRegistry.normalize(topic.getTopicName());
+        synchronized (topicLocks[(key.hashCode() & 0x7fffffff) % TOPIC_LOCKS]) {
+            if (topics.containsName(key))
+                return 0;
+            uniqueID = cluster.makeID(topicID.incrementAndGet());
+            topic.setTopicID(uniqueID);
+            logTopic(topic);
+            topics.add(new SubscriberManager(topic, retention));
+        }
+        advertise(topic);
+        cluster.broadcast(new ClusterNode.PeerCall<Void>() {
+            public Void call(ClusterPeer peer) throws RemoteException {
+                peer.topicAdded(topic);
+                return null;
+            }
+        });
+        return uniqueID;
+    }
+
+    /**
+     * Adding a topic owned by another server so it is listed and advertised to the agents of this one.
+     *
+     * @param topic details of the topic with its unique ID
+     * @throws RemoteException if the event log can't be written
+     */
+    public void topicAdded(Topic topic) throws RemoteException {
+        String key = TopicRegistry.normalize(topic.getTopicName());
+        synchronized (topicLocks[(key.hashCode() & 0x7fffffff) % TOPIC_LOCKS]) {
+            if (topics.get(topic.getTopicID()) != null)
+                return;
+            logTopic(topic);
+            topics.add(new SubscriberManager(topic, retention));
+        }
+        advertise(topic);
+    }
+
+    /**
+     * Writes a new topic to the event log, if there is one.
+     *
+     * @param topic details of the topic
+     * @throws RemoteException if the log can't be written
+     */
+    private void logTopic(Topic topic) throws RemoteException {
+        if (eventLog == null)
+            return;
+        try {
+            eventLog.appendTopic(topic);
+        } catch (IOException e) {
+            throw new RemoteException("Could not write to the event log.", e);
         }
     }
 
@@ -322,12 +932,27 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
      * @return True if successful, else False
      * @throws RemoteException
      */
-    public boolean addSubscriber(Integer subID, Topic topic) throws RemoteException {
-        for( SubscriberManager sAT : subsAndTopics) {
-            if (sAT.getTopic().getTopicID() == topic.getTopicID()) {
-
+    public boolean addSubscriber(final Integer subID, final Topic topic) throws RemoteException {
+        if (!clientBinding.contains(subID))
+            return false;
+        if (!cluster.owns(topic.getTopicID())) {
+            final Subscriber sub = clientBinding.get(subID);
+            return cluster.call(cluster.getView().nodeOf(topic.getTopicID()), new ClusterNode.PeerCall<Boolean>() {
+                public Boolean call(ClusterPeer peer) throws RemoteException {
+                    // the owner delivers the events of the topic itself
+                    peer.bindClient(subID, sub);
+                    return peer.addSubscriber(subID, topic);
+                }
+            });
+        }
+        final SubscriberManager sAT = topics.get(topic.getTopicID());
+        if (sAT != null && onShard(topic.getTopicID(), new Callable<Boolean>() {
+            public Boolean call() {
                 return sAT.addSubscriber(subID);
             }
+        })) {
+            logSubscription(subID, topic.getTopicID(), true);
+            return true;
         }
         return false;
     }
@@ -340,12 +965,22 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
      * @return True if successful, else False
      * @throws RemoteException
      */
-    public boolean removeSubscriber(Integer subID, Topic topic) throws RemoteException {
-        for( SubscriberManager sAT : subsAndTopics) {
-            Topic t = sAT.getTopic();
-            if (t.getTopicID() == topic.getTopicID()) {
+    public boolean removeSubscriber(final Integer subID, final Topic topic) throws RemoteException {
+        if (!cluster.owns(topic.getTopicID())) {
+            return cluster.call(cluster.getView().nodeOf(topic.getTopicID()), new ClusterNode.PeerCall<Boolean>() {
+                public Boolean call(ClusterPeer peer) throws RemoteException {
+                    return peer.removeSubscriber(subID, topic);
+                }
+            });
+        }
+        final SubscriberManager sAT = topics.get(topic.getTopicID());
+        if (sAT != null && onShard(topic.getTopicID(), new Callable<Boolean>() {
+            public Boolean call() {
                 return sAT.removeSubscriber(subID);
             }
+        })) {
+            logSubscription(subID, topic.getTopicID(), false);
+            return true;
         }
         return false;
     }
@@ -357,13 +992,154 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
      * @return True if successful, else False
      * @throws RemoteException
      */
-    public boolean removeSubscriber(Integer subID) throws RemoteException {
-        for( SubscriberManager sAT : subsAndTopics) {
-            sAT.removeSubscriber(subID);
+    public boolean removeSubscriber(final Integer subID) throws RemoteException {
+        subscriberRemoved(subID);
+        cluster.broadcast(new ClusterNode.PeerCall<Void>() {
+            public Void call(ClusterPeer peer) throws RemoteException {
+                peer.subscriberRemoved(subID);
+                return null;
+            }
+        });
+        return true;
+    }
+
+    /**
+     *  Removing a subscriber from the topics and keywords of this server only.
+     *
+     * @param subID Unique ID of the agent
+     * @throws RemoteException if the event log can't be written
+     */
+    public void subscriberRemoved(final int subID) throws RemoteException {
+        final ArrayList<SubscriberManager> managers = topics.managers();
+        if (shards == null) {
+            for (SubscriberManager sAT : managers)
+                sAT.removeSubscriber(subID);
+        } else {
+            // one call per shard, each removing the agent from the topics it owns
+            for (final BrokerShard shard : shards) {
+                shard.call(new Callable<Boolean>() {
+                    public Boolean call() {
+                        for (SubscriberManager sAT : managers) {
+                            if (shardFor(sAT.getTopic().getTopicID()) == shard)
+                                sAT.removeSubscriber(subID);
+                        }
+                        return true;
+                    }
+                });
+            }
         }
+        contentFilter.removeAll(subID);
+        logSubscription(subID, 0, false);
+    }
+
+    /**
+     * Writes a subscription change to the event log, if there is one.
+     *
+     * @param subID Unique ID of the agent
+     * @param topicID unique ID of the topic, or 0 for all topics and keywords
+     * @param subscribed True when subscribing
+     * @throws RemoteException if the log can't be written
+     */
+    private void logSubscription(int subID, int topicID, boolean subscribed) throws RemoteException {
+        if (eventLog == null)
+            return;
+        try {
+            eventLog.appendSubscription(subID, topicID, subscribed);
+        } catch (IOException e) {
+            throw new RemoteException("Could not write to the event log.", e);
+        }
+    }
+
+    /**
+     * Writes a keyword subscription change to the event log, if there is one.
+     *
+     * @param subID Unique ID of the agent
+     * @param keyword word of the subscription
+     * @param subscribed True when subscribing
+     * @throws RemoteException if the log can't be written
+     */
+    private void logKeyword(int subID, String keyword, boolean subscribed) throws RemoteException {
+        if (eventLog == null)
+            return;
+        try {
+            eventLog.appendKeyword(subID, keyword, subscribed);
+        } catch (IOException e) {
+            throw new RemoteException("Could not write to the event log.", e);
+        }
+    }
+
+    /**
+     * Adding a subscriber to the events that carry a keyword, whatever their topic.
+     *
+     * @param subID Unique ID of the agent
+     * @param keyword word to receive events for
+     * @return True if successful, else False
+     * @throws RemoteException
+     */
+    public boolean addKeywordSubscriber(final Integer subID, final String keyword) throws RemoteException {
+        if (keyword == null || !clientBinding.contains(subID))
+            return false;
+        if (!contentFilter.add(subID, keyword))
+            return false;
+        logKeyword(subID, keyword, true);
+        // events with the keyword can be published on any server, so every server needs to know
+        final Subscriber sub = clientBinding.get(subID);
+        cluster.broadcast(new ClusterNode.PeerCall<Void>() {
+            public Void call(ClusterPeer peer) throws RemoteException {
+                peer.bindClient(subID, sub);
+                peer.keywordChanged(subID, keyword, true);
+                return null;
+            }
+        });
         return true;
     }
 
+    /**
+     * Removing a subscriber from the events that carry a keyword.
+     *
+     * @param subID Unique ID of the agent
+     * @param keyword word it unsubscribes from
+     * @return True if successful, else False
+     * @throws RemoteException
+     */
+    public boolean removeKeywordSubscriber(final Integer subID, final String keyword) throws RemoteException {
+        if (keyword == null)
+            return false;
+        if (!contentFilter.remove(subID, keyword))
+            return false;
+        logKeyword(subID, keyword, false);
+        cluster.broadcast(new ClusterNode.PeerCall<Void>() {
+            public Void call(ClusterPeer peer) throws RemoteException {
+                peer.keywordChanged(subID, keyword, false);
+                return null;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Applying a keyword subscription made on another server.
+     *
+     * @param subID Unique ID of the agent
+     * @param keyword word of the subscription
+     * @param subscribed True when subscribing
+     * @throws RemoteException if the event log can't be written
+     */
+    public void keywordChanged(int subID, String keyword, boolean subscribed) throws RemoteException {
+        boolean changed = subscribed ? contentFilter.add(subID, keyword) : contentFilter.remove(subID, keyword);
+        if (changed)
+            logKeyword(subID, keyword, subscribed);
+    }
+
+    /**
+     * Returning the routing table so agents can call the owner of a topic directly.
+     *
+     * @return routing table of the cluster
+     */
+    public ClusterView getClusterView() {
+        return cluster.getView();
+    }
+
     /**
      * Displaying the Subscribers for the Topics
      *
@@ -371,34 +1147,124 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
      */
     public void displaySubs() throws RemoteException {
         // Subscribers for specific topics
-        for(SubscriberManager sAT : subsAndTopics) {
+        for(SubscriberManager sAT : topics.managers()) {
             Topic t = sAT.getTopic();
             System.out.print("Topic Title: " + t.getTopicName() + "\n" + sAT.printSubscribers());
-            String contentPrint = "";
+        }
+
+        // Subscribers for keywords
+        for (String key : contentFilter.keywords()) {
+            String contentPrint = "Keyword: " + key + "\n\tSubscriber List: ";
+            for (int id : contentFilter.subscribers(key))
+                contentPrint += id + " ";
+            System.out.println(contentPrint);
         }
 
 
         //Agents that have connected.
-        Iterator it = clientBinding.entrySet().iterator();
-        while (it.hasNext()) {
-            HashMap.Entry pair = (HashMap.Entry) it.next();
-            System.out.println(((Integer) pair.getKey()) + " = " + pair.getValue());
+        for (int id : clientBinding.ids()) {
+            int waiting = 0;
+            for (DeliveryEngine engine : deliveryEngines())
+                waiting += engine.pendingCount(id);
+            System.out.println(id + " = " + clientBinding.get(id) + " (" + waiting + " waiting)");
         }
 
     }
 
+    /**
+     * Displaying the agents that have events waiting, the furthest behind first.
+     */
+    public void displayLagging() {
+        ArrayList<long[]> lagging = new ArrayList<>();
+        long now = System.currentTimeMillis();
+        for (int id : clientBinding.ids()) {
+            // waiting, of which on disk, dropped, milliseconds since the last delivery
+            long[] lag = {id, 0, 0, 0, 0};
+            long lastDelivery = 0;
+            for (DeliveryEngine engine : deliveryEngines()) {
+                SubscriberQueue queue = engine.getQueue(id);
+                if (queue == null)
+                    continue;
+                lag[1] += queue.size();
+                lag[2] += queue.spilled();
+                lag[3] += queue.getDropped();
+                lastDelivery = Math.max(lastDelivery, queue.getLastDelivery());
+            }
+            lag[4] = now - lastDelivery;
+            if (lag[1] > 0 || lag[3] > 0)
+                lagging.add(lag);
+        }
+        lagging.sort((a, b) -> Long.compare(b[1], a[1]));
+        for (long[] lag : lagging) {
+            AtomicInteger window = creditWindows.get((int) lag[0]);
+            System.out.println(lag[0] + ": " + lag[1] + " waiting (" + lag[2] + " on disk), " + lag[3] + " dropped, "
+                    + "last delivery " + lag[4] / 1000 + " s ago"
+                    + (window == null ? "" : ", " + window.get() + " credits")
+                    + (clientBinding.get((int) lag[0]) == null ? ", offline" : ""));
+        }
+        if (lagging.isEmpty())
+            System.out.println("No agent is behind.");
+    }
+
     /**
      * Returning all topics.
      *
      * @return List of Topic Objects
      */
     public ArrayList<Topic> getTopics() {
-        synchronized (subsAndTopics) {
-            ArrayList<Topic> topicList = new ArrayList<>();
-            for (SubscriberManager sAT : subsAndTopics)
-                topicList.add(sAT.getTopic() );
-            return topicList;
-        }
+        return topics.topics();
+    }
+
+    /**
+     * Returns the version of the topic catalog of this server, which grows every time a topic is added.
+     *
+     * @return version of the catalog
+     */
+    public long getCatalogVersion() {
+        return topics.version();
+    }
+
+    /**
+     * Returns the topics added after a version of the catalog, at most maxTopics of them. Pages are
+     * encoded once and sent again as they are until a topic is added.
+     *
+     * @param sinceVersion version of the catalog the agent has, 0 for none
+     * @param maxTopics most topics returned
+     * @return page of topics
+     */
+    public TopicPage getTopicPage(long sinceVersion, int maxTopics) {
+        return topics.page(sinceVersion, maxTopics);
+    }
+
+    /**
+     * Finds a topic by its name in the name index, without going through every topic.
+     *
+     * @param name Name of the topic
+     * @param ignoreCase true to match the name whatever its case
+     * @return the topic or NULL
+     */
+    public Topic findTopic(String name, boolean ignoreCase) {
+        if (name == null)
+            return null;
+        SubscriberManager manager = topics.get(name);
+        if (manager == null)
+            return null;
+        Topic topic = manager.getTopic();
+        return ignoreCase || topic.getTopicName().equals(name) ? topic : null;
+    }
+
+    /**
+     * Finds the topics whose name starts with a prefix, ignoring case, walking the letters of the prefix
+     * in the name trie.
+     *
+     * @param prefix first letters of the names
+     * @param maxTopics most topics returned
+     * @return List of topics in alphabetical order
+     */
+    public ArrayList<Topic> findTopicsByPrefix(String prefix, int maxTopics) {
+        if (prefix == null)
+            return new ArrayList<>();
+        return topics.startingWith(prefix, maxTopics);
     }
 
     /**
@@ -411,7 +1277,8 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
             System.out.println("What would you like to do?");
             System.out.println(" 1: Display Topics.");
             System.out.println(" 2: Display Subscribers.");
-            System.out.println(" 3: Quit server.");
+            System.out.println(" 3: Display lagging Subscribers.");
+            System.out.println(" 4: Quit server.");
             System.out.print("Enter an Option: ");
             int choice = 0;
             choice = in.nextInt();
@@ -419,8 +1286,7 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
 
             switch (choice) {
                 case 1: {
-                    for (SubscriberManager sAT : subsAndTopics) {
-                        Topic t = sAT.getTopic();
+                    for (Topic t : topics.topics()) {
                         System.out.print(t);
                     }
                     break;
@@ -430,6 +1296,10 @@ public class EventManager extends UnicastRemoteObject implements EventInterface{
                     break;
                 }
                 case 3: {
+                    displayLagging();
+                    break;
+                }
+                case 4: {
                     in.close();
                     System.exit(0);
                 }
@@ -0,0 +1,181 @@
+package edu.rit.cs;
+import java.util.Arrays;
+
+/**
+ * A set of int IDs stored in a plain int array with open addressing, so no Integer objects are created.
+ * The server never hands out 0 as an ID, so 0 marks an empty slot and cannot be stored.
+ * This class is not synchronized; callers lock around it the same way they did for LinkedHashSet.
+ */
+public class IntSet {
+
+    private static final int MIN_CAPACITY = 4;
+
+    private int[] slots;
+    private int size;
+
+
+    /**
+     * Constructor of the class. It creates an empty set.
+     */
+    public IntSet() {
+        slots = new int[MIN_CAPACITY];
+    }
+
+    /**
+     * Constructor of the class holding the given IDs.
+     * @param values IDs to add
+     */
+    public IntSet(int[] values) {
+        slots = new int[capacityFor(values.length)];
+        addAll(values);
+    }
+
+    /**
+     * Adding an ID to the set.
+     * @param value ID greater than 0
+     * @return true if it was added, false if it was already there
+     */
+    public boolean add(int value) {
+        if (value == 0)
+            throw new IllegalArgumentException("0 is not a valid ID.");
+        int index = indexOf(value);
+        if (slots[index] == value)
+            return false;
+        slots[index] = value;
+        size++;
+        // keep the table at most three quarters full
+        if (size * 4 > slots.length * 3)
+            resize(slots.length * 2);
+        return true;
+    }
+
+    /**
+     * Adding every ID of an array to the set.
+     * @param values IDs to add
+     * @return true if at least one was added
+     */
+    public boolean addAll(int[] values) {
+        boolean changed = false;
+        for (int value : values)
+            changed |= add(value);
+        return changed;
+    }
+
+    /**
+     * Removing an ID from the set.
+     * @param value ID to remove
+     * @return true if it was removed, false if it was not there
+     */
+    public boolean remove(int value) {
+        if (value == 0)
+            return false;
+        int index = indexOf(value);
+        if (slots[index] != value)
+            return false;
+        slots[index] = 0;
+        size--;
+        // move later entries of the same run back so lookups don't stop at the hole
+        int mask = slots.length - 1;
+        int hole = index;
+        int next = (index + 1) & mask;
+        while (slots[next] != 0) {
+            int home = hash(slots[next]) & mask;
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                slots[hole] = slots[next];
+                slots[next] = 0;
+                hole = next;
+            }
+            next = (next + 1) & mask;
+        }
+        return true;
+    }
+
+    /**
+     * Checks if an ID is in the set.
+     * @param value ID to look for
+     * @return true if present
+     */
+    public boolean contains(int value) {
+        return value != 0 && slots[indexOf(value)] == value;
+    }
+
+    /**
+     * Returning the number of IDs.
+     * @return Number of IDs
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Checks if the set is empty.
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Removes every ID.
+     */
+    public void clear() {
+        slots = new int[MIN_CAPACITY];
+        size = 0;
+    }
+
+    /**
+     * Returning a copy of the IDs, in ascending order.
+     * @return Array of IDs
+     */
+    public int[] toArray() {
+        int[] result = new int[size];
+        int count = 0;
+        for (int value : slots) {
+            if (value != 0)
+                result[count++] = value;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    /**
+     * Lists the IDs separated by spaces.
+     * @return IDs in ascending order
+     */
+    public String toString() {
+        StringBuilder result = new StringBuilder();
+        for (int value : toArray())
+            result.append(value).append(' ');
+        return result.toString();
+    }
+
+    private int indexOf(int value) {
+        int mask = slots.length - 1;
+        int index = hash(value) & mask;
+        while (slots[index] != 0 && slots[index] != value)
+            index = (index + 1) & mask;
+        return index;
+    }
+
+    private void resize(int capacity) {
+        int[] old = slots;
+        slots = new int[capacity];
+        for (int value : old) {
+            if (value != 0)
+                slots[indexOf(value)] = value;
+        }
+    }
+
+    private static int hash(int value) {
+        // spread consecutive IDs over the table
+        int h = value * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int capacityFor(int count) {
+        int capacity = MIN_CAPACITY;
+        while (count * 4 > capacity * 3)
+            capacity *= 2;
+        return capacity;
+    }
+}
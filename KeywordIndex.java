@@ -0,0 +1,131 @@
+package edu.rit.cs;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An inverted index from keywords to the agents that subscribed to them, used for content-filtering.
+ * It also remembers the keywords of every agent so all of them can be dropped at once.
+ */
+public class KeywordIndex {
+
+    // Maps from a keyword to the IDs of the agents that receive events with that keyword
+    private ConcurrentHashMap<String, IntSet> subscribersByKeyword;
+    // Maps from the ID of an agent to the keywords it subscribed to
+    private ConcurrentHashMap<Integer, Set<String>> keywordsBySubscriber;
+
+
+    /**
+     * Constructor of the class. It creates empty indexes.
+     */
+    public KeywordIndex() {
+        subscribersByKeyword = new ConcurrentHashMap<>();
+        keywordsBySubscriber = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Normalizes a keyword so that " Rain" and "rain" match.
+     * @param keyword word to normalize
+     * @return key used in the index
+     */
+    public static String normalize(String keyword) {
+        return keyword.trim().toLowerCase();
+    }
+
+    /**
+     * Adding a subscriber to a keyword.
+     * @param subID unique ID of the agent
+     * @param keyword word to receive events for
+     * @return true if successful, false if it was already subscribed
+     */
+    public boolean add(final int subID, String keyword) {
+        final String key = normalize(keyword);
+        if (key.isEmpty())
+            return false;
+        final boolean[] added = new boolean[1];
+        subscribersByKeyword.compute(key, (k, subs) -> {
+            if (subs == null)
+                subs = new IntSet();
+            synchronized (subs) {
+                added[0] = subs.add(subID);
+            }
+            return subs;
+        });
+        keywordsBySubscriber.computeIfAbsent(subID, id -> ConcurrentHashMap.newKeySet()).add(key);
+        return added[0];
+    }
+
+    /**
+     * Removing a subscriber from a keyword.
+     * @param subID unique ID of the agent
+     * @param keyword word it unsubscribes from
+     * @return true if successful, false if it was not subscribed
+     */
+    public boolean remove(final int subID, String keyword) {
+        final String key = normalize(keyword);
+        final boolean[] removed = new boolean[1];
+        subscribersByKeyword.computeIfPresent(key, (k, subs) -> {
+            synchronized (subs) {
+                removed[0] = subs.remove(subID);
+                return subs.isEmpty() ? null : subs;
+            }
+        });
+        keywordsBySubscriber.computeIfPresent(subID, (id, keys) -> {
+            keys.remove(key);
+            return keys.isEmpty() ? null : keys;
+        });
+        return removed[0];
+    }
+
+    /**
+     * Removing a subscriber from every keyword it subscribed to.
+     * @param subID unique ID of the agent
+     */
+    public void removeAll(final int subID) {
+        Set<String> keys = keywordsBySubscriber.remove(subID);
+        if (keys == null)
+            return;
+        for (String key : keys) {
+            subscribersByKeyword.computeIfPresent(key, (k, subs) -> {
+                synchronized (subs) {
+                    subs.remove(subID);
+                    return subs.isEmpty() ? null : subs;
+                }
+            });
+        }
+    }
+
+    /**
+     * Returning a copy of the subscribers of a keyword.
+     * @param keyword word of an event
+     * @return IDs of the agents, empty if there are none
+     */
+    public int[] subscribers(String keyword) {
+        IntSet subs = subscribersByKeyword.get(normalize(keyword));
+        if (subs == null)
+            return new int[0];
+        synchronized (subs) {
+            return subs.toArray();
+        }
+    }
+
+    /**
+     * Returning the keywords of a subscriber.
+     * @param subID unique ID of the agent
+     * @return keywords, empty if there are none
+     */
+    public Set<String> keywords(int subID) {
+        Set<String> keys = keywordsBySubscriber.get(subID);
+        if (keys == null)
+            return Collections.emptySet();
+        return keys;
+    }
+
+    /**
+     * Returning every keyword that has at least one subscriber.
+     * @return keywords
+     */
+    public Set<String> keywords() {
+        return subscribersByKeyword.keySet();
+    }
+}
@@ -0,0 +1,904 @@
+package edu.rit.cs;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A transport carrying the calls of EventInterface and the callbacks of Subscriber over plain TCP.
+ * The server reads and writes all its connections from one selector thread and runs the calls on a small
+ * pool of workers, so tens of thousands of agents don't need a thread each.
+ * Every message is a frame: its length, its kind, the number of the call it belongs to, then the method
+ * and its arguments in the compact format of WireCodec. Calls on a connection are pipelined, each one only
+ * waits for the reply carrying its own number.
+ * An agent keeps one connection per server. A Subscriber passed as an argument stays in the agent and is
+ * called back over that connection; the server waits for the agent to acknowledge every callback.
+ */
+public class NioTransport implements Transport {
+
+    public static final String SCHEME = "nio://";
+    public static final int DEFAULT_WORKERS = 8;
+    public static final long DEFAULT_CALLBACK_TIMEOUT_MILLIS = 30000;
+
+    // Kinds of frames
+    private static final byte REQUEST = 1;
+    private static final byte RESPONSE = 2;
+    private static final byte FAILURE = 3;
+    private static final byte CALLBACK = 4;
+
+    // Tags written before every value
+    private static final byte NULL = 0;
+    private static final byte INT = 1;
+    private static final byte BOOLEAN = 2;
+    private static final byte STRING = 3;
+    private static final byte TOPIC = 4;
+    private static final byte EVENT = 5;
+    private static final byte ENVELOPE = 6;
+    private static final byte BATCH = 7;
+    private static final byte TOPICS = 8;
+    private static final byte SUBSCRIBER = 9;
+    // Was Java serialization, refused so that no class named by the other end is ever loaded
+    private static final byte OBJECT = 10;
+    private static final byte LONG = 11;
+    private static final byte EVENTS = 12;
+    private static final byte INTS = 13;
+    private static final byte VIEW = 14;
+    private static final byte PAGE = 15;
+
+    private static final int HEADER_BYTES = 9;
+    private static final int MAX_FRAME_BYTES = 64 << 20;
+    // Read buffer of a server connection, kept larger only while a larger frame arrives
+    private static final int BUFFER_BYTES = 8192;
+
+    // Methods are numbered the same way on both ends from their names and parameters
+    private static final Method[] CALLS = numbered(ClusterPeer.class);
+    private static final Method[] CALLBACKS = numbered(Subscriber.class);
+    private static final HashMap<Method, Integer> CALL_NUMBERS = numbers(CALLS);
+    private static final HashMap<Method, Integer> CALLBACK_NUMBERS = numbers(CALLBACKS);
+    private static final Method SUBSCRIBE = callbackMethod("subscribe", Topic.class);
+    private static final Method UNSUBSCRIBE = callbackMethod("unsubscribe", Topic.class);
+    private static final Method UNSUBSCRIBE_ALL = callbackMethod("unsubscribe");
+    private static final Method NOTIFY = callbackMethod("notify", EventEnvelope.class);
+    private static final Method NOTIFY_BATCH = callbackMethod("notifyBatch", EventBatch.class);
+    private static final Method NOTIFY_AD = callbackMethod("notifyAd", Topic.class);
+
+    private static final NioTransport INSTANCE = new NioTransport();
+
+    // Connections of this JVM to servers, by address
+    private final ConcurrentHashMap<String, ClientLink> clients;
+    private final long callbackTimeoutMillis;
+
+
+    private NioTransport() {
+        clients = new ConcurrentHashMap<>();
+        callbackTimeoutMillis = Long.getLong("pubsub.nio.callbackTimeoutMillis", DEFAULT_CALLBACK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Returns the only instance of the class.
+     * @return the NIO transport
+     */
+    public static NioTransport getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts accepting agents on the port of the address.
+     * @param address nio://host:port of the server
+     * @param service server receiving the calls
+     * @throws IOException if the port can't be bound
+     */
+    public void bind(String address, EventInterface service) throws IOException {
+        new Acceptor(service, socketAddress(address), Integer.getInteger("pubsub.nio.workers", DEFAULT_WORKERS))
+                .start();
+    }
+
+    /**
+     * Returns an object making calls on the server over this JVM's connection to it.
+     * The connection is opened on the first call and opened again after it breaks.
+     * @param address nio://host:port of the server
+     * @return the server
+     * @throws IOException if the address is invalid
+     */
+    public EventInterface lookup(String address) throws IOException {
+        socketAddress(address);
+        return (EventInterface) Proxy.newProxyInstance(ClusterPeer.class.getClassLoader(),
+                new Class<?>[] {ClusterPeer.class}, new Invoker(address));
+    }
+
+    private ClientLink client(String address) throws IOException {
+        ClientLink link = clients.get(address);
+        if (link != null && !link.isClosed())
+            return link;
+        synchronized (clients) {
+            link = clients.get(address);
+            if (link == null || link.isClosed()) {
+                link = new ClientLink(address, SocketChannel.open(socketAddress(address)));
+                clients.put(address, link);
+                link.start();
+            }
+            return link;
+        }
+    }
+
+    private static InetSocketAddress socketAddress(String address) throws IOException {
+        try {
+            URI uri = new URI(address);
+            if (uri.getHost() == null || uri.getPort() < 0)
+                throw new IOException("Expected " + SCHEME + "host:port but got " + address);
+            return new InetSocketAddress(uri.getHost(), uri.getPort());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid address " + address, e);
+        }
+    }
+
+    private static Method[] numbered(Class<?> type) {
+        Method[] methods = type.getMethods();
+        Arrays.sort(methods, new Comparator<Method>() {
+            public int compare(Method a, Method b) {
+                return signature(a).compareTo(signature(b));
+            }
+        });
+        return methods;
+    }
+
+    private static String signature(Method method) {
+        return method.getName() + Arrays.toString(method.getParameterTypes());
+    }
+
+    private static Method callbackMethod(String name, Class<?>... types) {
+        try {
+            return Subscriber.class.getMethod(name, types);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Method method(Method[] methods, int number) throws IOException {
+        if (number < 0 || number >= methods.length)
+            throw new IOException("Unknown method " + number + ".");
+        return methods[number];
+    }
+
+    private static HashMap<Method, Integer> numbers(Method[] methods) {
+        HashMap<Method, Integer> result = new HashMap<>();
+        for (int index = 0; index < methods.length; index++)
+            result.put(methods[index], index);
+        return result;
+    }
+
+
+    /**
+     * One end of a connection. It numbers the calls it makes and matches the replies to them.
+     */
+    private abstract static class Link {
+        private final AtomicInteger nextCall = new AtomicInteger();
+        private final ConcurrentHashMap<Integer, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+        protected volatile boolean closed;
+
+        abstract void send(ByteBuffer frame) throws IOException;
+
+        /**
+         * Turns a Subscriber argument into the number it is called back with, 0 if it can't be.
+         */
+        abstract int callbackNumber(Subscriber sub);
+
+        /**
+         * Returns the Subscriber a number read from the other end stands for.
+         */
+        abstract Subscriber callbackFor(int number);
+
+        boolean isClosed() {
+            return closed;
+        }
+
+        Object call(byte kind, int target, int method, Object[] args, long timeoutMillis) throws RemoteException {
+            if (closed)
+                throw new RemoteException("Connection closed.");
+            int number = nextCall.incrementAndGet();
+            CompletableFuture<Object> reply = new CompletableFuture<>();
+            pending.put(number, reply);
+            try {
+                send(encode(kind, number, target, method, args));
+                return timeoutMillis > 0 ? reply.get(timeoutMillis, TimeUnit.MILLISECONDS) : reply.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RemoteException)
+                    throw (RemoteException) e.getCause();
+                throw new RemoteException("Call failed.", e.getCause());
+            } catch (TimeoutException e) {
+                throw new RemoteException("No reply after " + timeoutMillis + " ms.", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Interrupted while waiting for a reply.", e);
+            } catch (IOException e) {
+                throw e instanceof RemoteException ? (RemoteException) e
+                        : new RemoteException("Could not send the call.", e);
+            } finally {
+                pending.remove(number);
+            }
+        }
+
+        void replied(byte kind, int number, DataInputStream in) throws IOException {
+            CompletableFuture<Object> reply = pending.get(number);
+            if (reply == null)
+                return; //the caller gave up waiting
+            WireCodec.Reader reader = new WireCodec.Reader(in);
+            if (kind == RESPONSE)
+                reply.complete(readValue(reader, in, this));
+            else
+                reply.completeExceptionally(new RemoteException(reader.readString()));
+        }
+
+        void reply(int number, Object result, Throwable failure) {
+            try {
+                if (failure == null)
+                    send(encode(RESPONSE, number, -1, -1, new Object[] {result}));
+                else
+                    send(encode(FAILURE, number, -1, -1, new Object[] {failure.toString()}));
+            } catch (IOException e) {
+                close(); //the other end will see the connection drop
+            }
+        }
+
+        void close() {
+            closed = true;
+            RemoteException e = new RemoteException("Connection closed.");
+            for (CompletableFuture<Object> reply : pending.values())
+                reply.completeExceptionally(e);
+        }
+
+        ByteBuffer encode(byte kind, int number, int target, int method, Object[] args) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0); //length, filled in below
+            out.writeByte(kind);
+            out.writeInt(number);
+            WireCodec.Writer writer = new WireCodec.Writer(out);
+            if (kind == REQUEST || kind == CALLBACK) {
+                if (kind == CALLBACK)
+                    writer.writeVarInt(target);
+                writer.writeVarInt(method);
+                writer.writeVarInt(args == null ? 0 : args.length);
+                if (args != null) {
+                    for (Object arg : args)
+                        writeValue(writer, out, arg, this);
+                }
+            } else if (kind == RESPONSE) {
+                writeValue(writer, out, args[0], this);
+            } else {
+                writer.writeString((String) args[0]);
+            }
+            out.flush();
+            ByteBuffer frame = ByteBuffer.wrap(bytes.toByteArray());
+            frame.putInt(0, frame.limit() - 4);
+            return frame;
+        }
+
+        Object[] readArgs(WireCodec.Reader reader, DataInputStream in) throws IOException {
+            Object[] args = new Object[reader.readCount()];
+            for (int index = 0; index < args.length; index++)
+                args[index] = readValue(reader, in, this);
+            return args;
+        }
+    }
+
+
+    private static void writeValue(WireCodec.Writer writer, DataOutputStream out, Object value, Link link)
+            throws IOException {
+        if (value == null) {
+            out.writeByte(NULL);
+        } else if (value instanceof Integer) {
+            out.writeByte(INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof int[]) {
+            int[] values = (int[]) value;
+            out.writeByte(INTS);
+            writer.writeVarInt(values.length);
+            for (int number : values)
+                writer.writeVarInt(number);
+        } else if (value instanceof Long) {
+            out.writeByte(LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING);
+            writer.writeString((String) value);
+        } else if (value instanceof Topic) {
+            out.writeByte(TOPIC);
+            writer.writeTopic((Topic) value);
+        } else if (value instanceof Event) {
+            out.writeByte(EVENT);
+            ((Event) value).writeTo(writer);
+        } else if (value instanceof EventEnvelope) {
+            out.writeByte(ENVELOPE);
+            writer.writeEnvelope((EventEnvelope) value);
+        } else if (value instanceof EventBatch) {
+            EventBatch batch = (EventBatch) value;
+            out.writeByte(BATCH);
+            writer.writeVarInt(batch.size());
+            for (EventEnvelope event : batch)
+                writer.writeEnvelope(event);
+        } else if (value instanceof Subscriber && !Proxy.isProxyClass(value.getClass())) {
+            // the object stays here and is called back over this connection
+            int number = link.callbackNumber((Subscriber) value);
+            if (number == 0) {
+                out.writeByte(NULL);
+            } else {
+                out.writeByte(SUBSCRIBER);
+                writer.writeVarInt(number);
+            }
+        } else if (value instanceof List && allTopics((List<?>) value)) {
+            List<?> topics = (List<?>) value;
+            out.writeByte(TOPICS);
+            writer.writeVarInt(topics.size());
+            for (Object topic : topics)
+                writer.writeTopic((Topic) topic);
+        } else if (value instanceof List && allEvents((List<?>) value)) {
+            List<?> events = (List<?>) value;
+            out.writeByte(EVENTS);
+            writer.writeVarInt(events.size());
+            for (Object event : events)
+                ((Event) event).writeTo(writer);
+        } else if (value instanceof ClusterView) {
+            ClusterView view = (ClusterView) value;
+            out.writeByte(VIEW);
+            writer.writeVarInt(view.size());
+            for (int node = 0; node < view.size(); node++)
+                writer.writeString(view.getNode(node));
+        } else if (value instanceof TopicPage) {
+            out.writeByte(PAGE);
+            ((TopicPage) value).writeTo(out);
+        } else {
+            throw new IOException("Cannot send a value of " + value.getClass().getName() + ".");
+        }
+    }
+
+    private static boolean allTopics(List<?> values) {
+        for (Object value : values) {
+            if (!(value instanceof Topic))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean allEvents(List<?> values) {
+        for (Object value : values) {
+            if (!(value instanceof Event))
+                return false;
+        }
+        return true;
+    }
+
+    private static Object readValue(WireCodec.Reader reader, DataInputStream in, Link link) throws IOException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case NULL:
+                return null;
+            case INT:
+                return in.readInt();
+            case LONG:
+                return in.readLong();
+            case BOOLEAN:
+                return in.readBoolean();
+            case STRING:
+                return reader.readString();
+            case TOPIC:
+                return reader.readTopic();
+            case EVENT:
+                return new Event().readFrom(reader);
+            case ENVELOPE:
+                return reader.readEnvelope();
+            case BATCH: {
+                int size = reader.readCount();
+                ArrayList<EventEnvelope> events = new ArrayList<>(size);
+                for (int index = 0; index < size; index++)
+                    events.add(reader.readEnvelope());
+                return new EventBatch(events);
+            }
+            case INTS: {
+                int[] values = new int[reader.readCount()];
+                for (int index = 0; index < values.length; index++)
+                    values[index] = reader.readVarInt();
+                return values;
+            }
+            case EVENTS: {
+                int size = reader.readCount();
+                ArrayList<Event> events = new ArrayList<>(size);
+                for (int index = 0; index < size; index++)
+                    events.add(new Event().readFrom(reader));
+                return events;
+            }
+            case TOPICS: {
+                int size = reader.readCount();
+                ArrayList<Topic> topics = new ArrayList<>(size);
+                for (int index = 0; index < size; index++)
+                    topics.add(reader.readTopic());
+                return topics;
+            }
+            case SUBSCRIBER:
+                return link.callbackFor(reader.readVarInt());
+            case VIEW: {
+                String[] nodes = new String[reader.readCount()];
+                for (int node = 0; node < nodes.length; node++)
+                    nodes[node] = reader.readString();
+                try {
+                    return new ClusterView(nodes);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Bad routing table in message.", e);
+                }
+            }
+            case PAGE:
+                return new TopicPage().readFrom(in);
+            case OBJECT:
+                throw new IOException("Serialized Java objects are not accepted.");
+            default:
+                throw new IOException("Unknown value tag " + tag + ".");
+        }
+    }
+
+
+    /**
+     * Makes the calls of the object returned by lookup. It only keeps the address, so an agent saved to disk
+     * with it connects again when it is loaded.
+     */
+    private static class Invoker implements InvocationHandler, Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String address;
+
+        Invoker(String address) {
+            this.address = address;
+        }
+
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return Proxy.isProxyClass(args[0].getClass())
+                                && Proxy.getInvocationHandler(args[0]) instanceof Invoker
+                                && address.equals(((Invoker) Proxy.getInvocationHandler(args[0])).address);
+                    case "hashCode":
+                        return address.hashCode();
+                    default:
+                        return "NioTransport[" + address + "]";
+                }
+            }
+            ClientLink link;
+            try {
+                link = INSTANCE.client(address);
+            } catch (IOException e) {
+                throw new RemoteException("Could not connect to " + address, e);
+            }
+            return link.call(REQUEST, -1, CALL_NUMBERS.get(method), args, 0);
+        }
+    }
+
+
+    /**
+     * The agent's end of a connection. It writes with blocking calls and reads on a thread of its own.
+     * Callbacks run one at a time, in the order they arrive, on another thread, so a slow callback doesn't
+     * hold up the replies to the agent's own calls.
+     */
+    private static class ClientLink extends Link {
+        private final String address;
+        private final SocketChannel channel;
+        // Subscribers of this JVM by the number they are called back with, and back
+        private final ConcurrentHashMap<Integer, Subscriber> targets;
+        private final IdentityHashMap<Subscriber, Integer> numbers;
+        private final ExecutorService callbacks;
+
+        ClientLink(String address, SocketChannel channel) throws IOException {
+            this.address = address;
+            this.channel = channel;
+            channel.socket().setTcpNoDelay(true);
+            targets = new ConcurrentHashMap<>();
+            numbers = new IdentityHashMap<>();
+            callbacks = Executors.newSingleThreadExecutor(daemon("nio-callback"));
+        }
+
+        void start() {
+            Thread reader = new Thread(new Runnable() {
+                public void run() {
+                    readLoop();
+                }
+            }, "nio-client");
+            //Daemon allows this thread not to block program from exiting
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        void send(ByteBuffer frame) throws IOException {
+            synchronized (channel) {
+                while (frame.hasRemaining())
+                    channel.write(frame);
+            }
+        }
+
+        synchronized int callbackNumber(Subscriber sub) {
+            Integer number = numbers.get(sub);
+            if (number == null) {
+                number = numbers.size() + 1;
+                numbers.put(sub, number);
+                targets.put(number, sub);
+            }
+            return number;
+        }
+
+        Subscriber callbackFor(int number) {
+            return null; //servers don't pass their own callbacks to agents
+        }
+
+        void close() {
+            super.close();
+            INSTANCE.clients.remove(address, this);
+            callbacks.shutdown();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //already closed
+            }
+        }
+
+        private void readLoop() {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            try {
+                while (true) {
+                    header.clear();
+                    readFully(header);
+                    header.flip();
+                    int length = header.getInt();
+                    byte kind = header.get();
+                    int number = header.getInt();
+                    if (length < HEADER_BYTES - 4 || length > MAX_FRAME_BYTES)
+                        throw new IOException("Invalid frame length " + length + ".");
+                    ByteBuffer body = ByteBuffer.allocate(length - (HEADER_BYTES - 4));
+                    readFully(body);
+                    DataInputStream in = new WireCodec.Input(body.array());
+                    if (kind == CALLBACK)
+                        callback(number, in);
+                    else
+                        replied(kind, number, in);
+                }
+            } catch (IOException | RuntimeException e) {
+                //a frame that can't be read leaves the stream out of step, the calls waiting on it fail
+                close();
+            }
+        }
+
+        private void readFully(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0)
+                    throw new EOFException();
+            }
+        }
+
+        private void callback(final int number, DataInputStream in) throws IOException {
+            WireCodec.Reader reader = new WireCodec.Reader(in);
+            final Subscriber target = targets.get(reader.readVarInt());
+            final Method method = method(CALLBACKS, reader.readVarInt());
+            final Object[] args = readArgs(reader, in);
+            callbacks.execute(new Runnable() {
+                public void run() {
+                    if (target == null) {
+                        reply(number, null, new RemoteException("Unknown subscriber."));
+                        return;
+                    }
+                    try {
+                        reply(number, method.invoke(target, args), null);
+                    } catch (InvocationTargetException e) {
+                        reply(number, null, e.getCause());
+                    } catch (Exception | Error e) {
+                        reply(number, null, e);
+                    }
+                }
+            });
+        }
+    }
+
+
+    /**
+     * The server's end of a connection. Bytes are read by the selector thread; replies and callbacks are
+     * written straight away by the thread producing them, and whatever the socket can't take yet is left
+     * for the selector thread to write once it can.
+     */
+    private class ServerLink extends Link {
+        private final Acceptor acceptor;
+        private final SocketChannel channel;
+        private ByteBuffer in;
+        private final ConcurrentLinkedQueue<ByteBuffer> outbound;
+        // Agents reached over this connection, by the number the agent gave them
+        private final ConcurrentHashMap<Integer, RemoteSubscriber> callbacks;
+        private SelectionKey key;
+
+        ServerLink(Acceptor acceptor, SocketChannel channel) {
+            this.acceptor = acceptor;
+            this.channel = channel;
+            in = ByteBuffer.allocate(BUFFER_BYTES);
+            outbound = new ConcurrentLinkedQueue<>();
+            callbacks = new ConcurrentHashMap<>();
+        }
+
+        void send(ByteBuffer frame) throws IOException {
+            if (closed)
+                throw new RemoteException("Connection closed.");
+            outbound.add(frame);
+            if (!flush())
+                acceptor.wantsWrite(this);
+        }
+
+        /**
+         * Writes as much as the socket takes without waiting.
+         * @return true if nothing is left to write
+         */
+        synchronized boolean flush() throws IOException {
+            ByteBuffer frame;
+            while ((frame = outbound.peek()) != null) {
+                channel.write(frame);
+                if (frame.hasRemaining())
+                    return false;
+                outbound.poll();
+            }
+            return true;
+        }
+
+        int callbackNumber(Subscriber sub) {
+            return 0; //agents can only be called back over their own connection
+        }
+
+        Subscriber callbackFor(int number) {
+            RemoteSubscriber sub = callbacks.get(number);
+            if (sub == null) {
+                sub = new RemoteSubscriber(this, number);
+                RemoteSubscriber existing = callbacks.putIfAbsent(number, sub);
+                if (existing != null)
+                    sub = existing;
+            }
+            return sub;
+        }
+
+        void close() {
+            super.close();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //already closed
+            }
+        }
+
+        /**
+         * Reads what has arrived and handles every complete frame.
+         */
+        void readable() throws IOException {
+            if (channel.read(in) < 0)
+                throw new EOFException();
+            in.flip();
+            while (in.remaining() >= 4) {
+                int length = in.getInt(in.position());
+                if (length < HEADER_BYTES - 4 || length > MAX_FRAME_BYTES)
+                    throw new IOException("Invalid frame length " + length + ".");
+                if (in.remaining() < length + 4) {
+                    if (in.capacity() < length + 4) {
+                        ByteBuffer larger = ByteBuffer.allocate(length + 4);
+                        larger.put(in);
+                        in = larger;
+                        return;
+                    }
+                    break;
+                }
+                in.getInt();
+                byte kind = in.get();
+                int number = in.getInt();
+                byte[] body = new byte[length - (HEADER_BYTES - 4)];
+                in.get(body);
+                received(kind, number, body);
+            }
+            in.compact();
+            if (in.capacity() > BUFFER_BYTES && in.position() <= BUFFER_BYTES) {
+                //the large frame was handled, only keep what is left of the next one
+                in.flip();
+                in = ByteBuffer.allocate(BUFFER_BYTES).put(in);
+            }
+        }
+
+        private void received(byte kind, final int number, byte[] body) throws IOException {
+            final DataInputStream data = new WireCodec.Input(body);
+            if (kind != REQUEST) {
+                replied(kind, number, data);
+                return;
+            }
+            // the call may block, on the event log or on another server, so it runs on a worker
+            acceptor.workers.execute(new Runnable() {
+                public void run() {
+                    try {
+                        WireCodec.Reader reader = new WireCodec.Reader(data);
+                        Method method = method(CALLS, reader.readVarInt());
+                        Object[] args = readArgs(reader, data);
+                        reply(number, method.invoke(acceptor.service, args), null);
+                    } catch (InvocationTargetException e) {
+                        reply(number, null, e.getCause());
+                    } catch (Exception | Error e) {
+                        //the agent waits for a reply without a time limit, so it always gets one
+                        reply(number, null, e);
+                    }
+                }
+            });
+        }
+    }
+
+
+    /**
+     * An agent as seen by the server: calling it sends a callback over the agent's connection and waits
+     * for the agent to acknowledge it.
+     */
+    private class RemoteSubscriber implements Subscriber {
+        private final ServerLink link;
+        private final int number;
+
+        RemoteSubscriber(ServerLink link, int number) {
+            this.link = link;
+            this.number = number;
+        }
+
+        private void callback(Method method, Object... args) throws RemoteException {
+            link.call(CALLBACK, number, CALLBACK_NUMBERS.get(method), args, callbackTimeoutMillis);
+        }
+
+        public void subscribe(Topic topic) throws RemoteException {
+            callback(SUBSCRIBE, topic);
+        }
+
+        public void unsubscribe(Topic topic) throws RemoteException {
+            callback(UNSUBSCRIBE, topic);
+        }
+
+        public void unsubscribe() throws RemoteException {
+            callback(UNSUBSCRIBE_ALL);
+        }
+
+        public void notify(EventEnvelope e) throws RemoteException {
+            callback(NOTIFY, e);
+        }
+
+        public void notifyBatch(EventBatch events) throws RemoteException {
+            callback(NOTIFY_BATCH, events);
+        }
+
+        public void notifyAd(Topic topic) throws RemoteException {
+            callback(NOTIFY_AD, topic);
+        }
+
+        public String toString() {
+            return "NioSubscriber[" + link.channel.socket().getRemoteSocketAddress() + "#" + number + "]";
+        }
+    }
+
+
+    /**
+     * The selector thread of a server. It accepts agents, reads their frames and finishes the writes the
+     * other threads couldn't complete.
+     */
+    private class Acceptor implements Runnable {
+        private final EventInterface service;
+        private final ServerSocketChannel server;
+        private final Selector selector;
+        private final ExecutorService workers;
+        // Connections with bytes the socket didn't take yet
+        private final ConcurrentLinkedQueue<ServerLink> writers;
+
+        Acceptor(EventInterface service, InetSocketAddress address, int workerCount) throws IOException {
+            this.service = service;
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(address.getPort()), 1024);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            workers = Executors.newFixedThreadPool(workerCount, daemon("nio-worker"));
+            writers = new ConcurrentLinkedQueue<>();
+        }
+
+        void start() {
+            Thread thread = new Thread(this, "nio-selector");
+            //Daemon allows this thread not to block program from exiting
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void wantsWrite(ServerLink link) {
+            writers.add(link);
+            selector.wakeup();
+        }
+
+        public void run() {
+            while (server.isOpen()) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    System.err.println("NIO selector failed: " + e.getMessage());
+                    return;
+                }
+                ServerLink waiting;
+                while ((waiting = writers.poll()) != null) {
+                    if (waiting.key != null && waiting.key.isValid())
+                        waiting.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    ServerLink link = (ServerLink) key.attachment();
+                    try {
+                        if (key.isReadable())
+                            link.readable();
+                        if (key.isValid() && key.isWritable() && link.flush())
+                            key.interestOps(SelectionKey.OP_READ);
+                    } catch (IOException | RuntimeException e) {
+                        key.cancel();
+                        link.close();
+                    }
+                }
+            }
+        }
+
+        private void accept() {
+            try {
+                SocketChannel channel;
+                while ((channel = server.accept()) != null) {
+                    channel.configureBlocking(false);
+                    channel.socket().setTcpNoDelay(true);
+                    ServerLink link = new ServerLink(this, channel);
+                    link.key = channel.register(selector, SelectionKey.OP_READ, link);
+                }
+            } catch (IOException e) {
+                System.err.println("Could not accept an agent: " + e.getMessage());
+            }
+        }
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                //Daemon allows this thread not to block program from exiting
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+}
@@ -0,0 +1,137 @@
+package edu.rit.cs;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A class that keeps, on the server only, how far every agent got in every topic.
+ * Each agent has one cursor per topic holding the offset after the last event it received, which tells a
+ * first delivery from a replayed copy, and the offset it committed, from which it can resume.
+ * Receiving an event commits the offset after it as well, unless the agent already committed further.
+ */
+public class OffsetTable {
+
+    /**
+     * The cursor of one agent in one topic, guarded by its own lock.
+     */
+    private static class Cursor {
+        // Offset after the last event received, -1 before the first
+        long delivered = -1;
+        // Offset the agent resumes from, -1 if none
+        long committed = -1;
+    }
+
+    // Maps from the agent and topic to its cursor
+    private ConcurrentHashMap<Long, Cursor> cursors;
+
+
+    /**
+     * Constructor of the class.
+     */
+    public OffsetTable() {
+        cursors = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Records that an agent received the event at an offset.
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic
+     * @param offset offset of the event
+     * @return true if the agent had not received it before, false for a replayed copy
+     */
+    public boolean delivered(int subID, int topicID, long offset) {
+        Cursor cursor = cursor(subID, topicID);
+        synchronized (cursor) {
+            if (offset < cursor.delivered)
+                return false;
+            cursor.delivered = offset + 1;
+            cursor.committed = Math.max(cursor.committed, offset + 1);
+            return true;
+        }
+    }
+
+    /**
+     * Records that an agent will not receive the event at an offset, because it was dropped. The offset it
+     * resumes from stays where it was, so it can still replay the event.
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic
+     * @param offset offset of the event
+     * @return true if the agent had not received it before
+     */
+    public boolean skipped(int subID, int topicID, long offset) {
+        Cursor cursor = cursor(subID, topicID);
+        synchronized (cursor) {
+            if (offset < cursor.delivered)
+                return false;
+            cursor.delivered = offset + 1;
+            return true;
+        }
+    }
+
+    /**
+     * Sets the offset an agent resumes a topic from.
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic
+     * @param offset offset of the first event not processed yet
+     */
+    public void commit(int subID, int topicID, long offset) {
+        Cursor cursor = cursor(subID, topicID);
+        synchronized (cursor) {
+            cursor.committed = offset;
+        }
+    }
+
+    /**
+     * Returns the offset an agent resumes a topic from.
+     * @param subID unique ID of the agent
+     * @param topicID unique ID of the topic
+     * @return offset, or -1 if the agent neither received nor committed anything in the topic
+     */
+    public long committed(int subID, int topicID) {
+        Cursor cursor = cursors.get(key(subID, topicID));
+        if (cursor == null)
+            return -1;
+        synchronized (cursor) {
+            return cursor.committed;
+        }
+    }
+
+    /**
+     * Returns every committed offset, for the checkpoints of the event log.
+     * @return List of {agent ID, topic ID, offset}
+     */
+    public ArrayList<long[]> committedOffsets() {
+        ArrayList<long[]> result = new ArrayList<>();
+        for (Map.Entry<Long, Cursor> entry : cursors.entrySet()) {
+            long offset;
+            synchronized (entry.getValue()) {
+                offset = entry.getValue().committed;
+            }
+            if (offset >= 0)
+                result.add(new long[] {entry.getKey() >> 32, (int) (long) entry.getKey(), offset});
+        }
+        return result;
+    }
+
+    /**
+     * Number of agent and topic pairs with a cursor.
+     * @return Number of cursors
+     */
+    public int size() {
+        return cursors.size();
+    }
+
+    private Cursor cursor(int subID, int topicID) {
+        Long key = key(subID, topicID);
+        Cursor cursor = cursors.get(key);
+        if (cursor == null) {
+            cursors.putIfAbsent(key, new Cursor());
+            cursor = cursors.get(key);
+        }
+        return cursor;
+    }
+
+    private static Long key(int subID, int topicID) {
+        return ((long) subID << 32) | (topicID & 0xffffffffL);
+    }
+}
@@ -0,0 +1,226 @@
+package edu.rit.cs;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A stage that processes received events on a pool of workers while keeping them in order where it matters.
+ * Every event has a key, the ID of its topic unless a partitioner says otherwise, and all events with the same
+ * key go to the same worker, so they are processed one at a time in the order they arrived while events with
+ * other keys are processed in parallel. Each worker has a bounded queue; when it is full the thread submitting
+ * an event waits, which holds up the delivery to the agent instead of piling events up in memory.
+ */
+public class PartitionedProcessor {
+
+    // Most events a worker takes from its queue at once
+    private static final int MAX_DRAIN = 256;
+
+    /**
+     * Processes one event. It is called on the worker of the key of the event.
+     */
+    public interface Handler {
+        void handle(EventEnvelope event) throws Exception;
+    }
+
+    /**
+     * Picks the key of an event. Events with the same key are processed in order.
+     */
+    public interface Partitioner {
+        int keyOf(EventEnvelope event);
+    }
+
+    /**
+     * Told about the events a worker finished, in order, after they were handled. The list is reused after
+     * the call returns.
+     */
+    public interface Completion {
+        void processed(List<EventEnvelope> events);
+    }
+
+    public static final Partitioner BY_TOPIC = new Partitioner() {
+        public int keyOf(EventEnvelope event) {
+            return event.getTopicID();
+        }
+    };
+
+    // Put in a queue to stop its worker
+    private static final EventEnvelope STOP = new EventEnvelope(0, 0, -1, "", "", new String[0]);
+
+    /**
+     * One worker and its queue.
+     */
+    private class Lane implements Runnable {
+        final ArrayBlockingQueue<EventEnvelope> queue;
+        // Most events ever waiting in the queue
+        volatile int maxDepth;
+        Thread thread;
+
+        Lane(int queueDepth) {
+            queue = new ArrayBlockingQueue<>(queueDepth);
+        }
+
+        public void run() {
+            ArrayList<EventEnvelope> batch = new ArrayList<>();
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, MAX_DRAIN - 1);
+                    //close() puts STOP after every accepted event, but stop on it wherever it is
+                    boolean stop = batch.remove(STOP);
+                    for (EventEnvelope event : batch) {
+                        try {
+                            handler.handle(event);
+                        } catch (Exception e) {
+                            failed.incrementAndGet();
+                            System.err.println("Could not process event " + event.getID() + ": " + e);
+                        }
+                    }
+                    processed.addAndGet(batch.size());
+                    if (completion != null && !batch.isEmpty())
+                        completion.processed(batch);
+                    batch.clear();
+                    if (stop)
+                        return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private final Handler handler;
+    private final Partitioner partitioner;
+    private final Completion completion;
+    private final Lane[] lanes;
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    // Times a submitter had to wait for room in a queue
+    private final AtomicLong stalls = new AtomicLong();
+    // Submitters hold the read lock, close() takes the write lock so no event is queued behind a STOP
+    private final ReentrantReadWriteLock closing = new ReentrantReadWriteLock();
+    private volatile boolean closed;
+
+
+    /**
+     * Constructor of the class. It starts the workers.
+     * @param handler processes the events
+     * @param partitioner picks the key of an event, NULL for the topic
+     * @param workers number of workers
+     * @param queueDepth most events waiting for one worker
+     * @param completion told about the events each worker finished, or NULL
+     */
+    public PartitionedProcessor(Handler handler, Partitioner partitioner, int workers, int queueDepth,
+                                Completion completion) {
+        this.handler = handler;
+        this.partitioner = partitioner == null ? BY_TOPIC : partitioner;
+        this.completion = completion;
+        lanes = new Lane[Math.max(1, workers)];
+        for (int index = 0; index < lanes.length; index++) {
+            lanes[index] = new Lane(Math.max(1, queueDepth));
+            lanes[index].thread = new Thread(lanes[index], "event-processor-" + index);
+            lanes[index].thread.setDaemon(true);
+            lanes[index].thread.start();
+        }
+    }
+
+    /**
+     * Queues an event on the worker of its key, waiting while that queue is full.
+     * @param event details of the event
+     * @return true if the event will be processed, false if the stage is closed and the caller keeps it
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean submit(EventEnvelope event) throws InterruptedException {
+        Lane lane = laneOf(partitioner.keyOf(event));
+        closing.readLock().lockInterruptibly();
+        try {
+            if (closed)
+                return false;
+            if (!lane.queue.offer(event)) {
+                stalls.incrementAndGet();
+                lane.queue.put(event);
+            }
+        } finally {
+            closing.readLock().unlock();
+        }
+        int depth = lane.queue.size();
+        if (depth > lane.maxDepth)
+            lane.maxDepth = depth;
+        return true;
+    }
+
+    /**
+     * Processes what was queued and stops the workers. Events submitted afterwards are refused.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void close() throws InterruptedException {
+        closing.writeLock().lockInterruptibly();
+        try {
+            if (!closed) {
+                closed = true;
+                //the workers are still running, so a full queue makes room for STOP
+                for (Lane lane : lanes)
+                    lane.queue.put(STOP);
+            }
+        } finally {
+            closing.writeLock().unlock();
+        }
+        for (Lane lane : lanes)
+            lane.thread.join();
+    }
+
+    /**
+     * Number of events waiting for each worker.
+     * @return queue depths, by worker
+     */
+    public int[] depths() {
+        int[] depths = new int[lanes.length];
+        for (int index = 0; index < lanes.length; index++)
+            depths[index] = lanes[index].queue.size();
+        return depths;
+    }
+
+    /**
+     * Most events that ever waited for one worker.
+     * @return queue depth
+     */
+    public int getMaxDepth() {
+        int max = 0;
+        for (Lane lane : lanes)
+            max = Math.max(max, lane.maxDepth);
+        return max;
+    }
+
+    public long getProcessed() {
+        return processed.get();
+    }
+
+    public long getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Number of times the delivery waited because a queue was full.
+     * @return Number of waits
+     */
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    public String toString() {
+        int waiting = 0;
+        for (int depth : depths())
+            waiting += depth;
+        return "Processing on " + lanes.length + " workers: " + waiting + " waiting (most in one queue "
+                + getMaxDepth() + "), " + processed.get() + " processed, " + failed.get() + " failed, delivery waited "
+                + stalls.get() + " times.";
+    }
+
+    private Lane laneOf(int key) {
+        // spread keys that share a pattern, such as IDs numbered sequence * nodes + node in a cluster
+        int hash = key * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return lanes[Math.floorMod(hash, lanes.length)];
+    }
+}
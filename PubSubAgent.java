@@ -5,8 +5,20 @@ import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class acts as Publisher or Subscriber. It works according to the selected option.
@@ -17,18 +29,57 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
     public EventInterface server;
     //Unique identifier assigned by the server
     private int agentID;
-    public ArrayList<Topic> receivedTopics;
+    //Servers of the cluster and the topics they own, so topics are published to and subscribed on their owner
+    private ClusterView cluster;
+    //Maps from the number of a server to its RMI object, the home server is kept in server
+    private transient HashMap<Integer, EventInterface> owners;
+    //In pull mode the agent fetches its events with poll instead of being called back
+    private boolean pullMode;
+    private transient boolean polling;
+    public static final int POLL_MAX_EVENTS = 500;
+    public static final long POLL_TIMEOUT_MILLIS = 30000;
+    //With flow control every server sends at most this many events the agent has not processed, 0 for no limit
+    private int creditWindow;
+    //Credits of processed events not handed back yet, started on first use
+    private transient volatile CreditReturns creditReturns;
+    public RingBuffer<Topic> receivedTopics;
+    //Copy of the topic catalog of the server, kept up to date by advertisements, started on first use
+    private transient volatile TopicCache topicCache;
 
 
     //Used by the publisher
     public ArrayList<Topic> pubTopics;
     public ArrayList<Event> pubEvents;
+    //Collects published events into batches, started on the first publish
+    private transient PublishAccumulator publisher;
+    //Runs the remote calls of every agent in the JVM and waits out their retries, so pending calls cost no threads
+    private static ScheduledExecutorService calls;
+    public static final int DEFAULT_CALL_THREADS = 4;
+    public static final int RETRY_ATTEMPTS = 20;
+    public static final long RETRY_DELAY_MILLIS = 800;
+
+    /**
+     * A call to a server that may be tried again.
+     */
+    private interface RemoteCall<T> {
+        T call() throws RemoteException;
+    }
 
 
     //Used by the subscriber
     public ArrayList<Topic> subscriberTopics;
     public ArrayList<String> subscriberKeywords;
-    public ArrayList<Event> receivedEvents;
+    public RingBuffer<EventEnvelope> receivedEvents;
+    public static final int DEFAULT_KEEP_RECEIVED = 1000;
+    //Listeners of what the agent receives, each on a thread waiting on signal, which is set with the first one
+    private transient CopyOnWriteArrayList<Dispatcher> dispatchers;
+    private transient volatile Object signal;
+    private transient volatile int idleListeners;
+    //Optional stage processing received events on a pool of workers, NULL when off
+    private transient volatile PartitionedProcessor processor;
+    public static final int DISPATCH_BATCH = 256;
+    //Most topics shown when searching by the first letters of a name
+    public static final int TOPIC_SEARCH_LIMIT = 20;
 
 
     /**
@@ -39,12 +90,16 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
      */
     public PubSubAgent(EventInterface server) throws RemoteException {
         this.server = server;
-        if (server != null)
+        if (server != null) {
             this.agentID = server.connect(this);
+            this.cluster = server.getClusterView();
+        }
         subscriberTopics = new ArrayList<>();
         subscriberKeywords = new ArrayList<>();
-        receivedEvents = new ArrayList<>();
-        receivedTopics = new ArrayList<>();
+        // only the latest are kept, pubsub.agent.keep of each
+        int keep = Integer.getInteger("pubsub.agent.keep", DEFAULT_KEEP_RECEIVED);
+        receivedEvents = new RingBuffer<>(keep);
+        receivedTopics = new RingBuffer<>(keep);
         pubTopics = new ArrayList<>();
         pubEvents = new ArrayList<>();
     }
@@ -58,6 +113,9 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
     public void setupServer(EventInterface server) throws RemoteException {
         this.server = server;
         this.agentID = server.connect(this);
+        this.cluster = server.getClusterView();
+        this.owners = null;
+        topicCache().invalidate();
     }
 
 
@@ -66,7 +124,257 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
      * @throws RemoteException
      */
     public void reconnectServer() throws RemoteException {
-        server.reConnect(this.agentID, this);
+        this.agentID = server.reConnect(this.agentID, callback());
+        this.cluster = server.getClusterView();
+        this.owners = null;
+        topicCache().invalidate();
+        if (creditWindow > 0) {
+            creditReturns().clear();
+            resetCredits(server);
+        }
+        if (pullMode)
+            startPolling();
+    }
+
+
+    /**
+     * Turns on flow control: every server delivering to the agent sends at most window events ahead of what
+     * the agent has processed, and waits for the agent to hand the credits back. A window of 0 turns it off.
+     * @param window most events sent ahead by one server
+     * @throws RemoteException
+     */
+    public void useCredits(int window) throws RemoteException {
+        creditWindow = Math.max(0, window);
+        creditReturns().clear();
+        resetCredits(server);
+        synchronized (this) {
+            if (owners != null) {
+                for (EventInterface owner : owners.values())
+                    resetCredits(owner);
+            }
+        }
+    }
+
+
+    /**
+     * Starts the credits of the agent on a server over from a full window.
+     * @param target RMI object of the server
+     * @throws RemoteException
+     */
+    private void resetCredits(EventInterface target) throws RemoteException {
+        target.grantCredits(agentID, -1);
+        if (creditWindow > 0)
+            target.grantCredits(agentID, creditWindow);
+    }
+
+
+    /**
+     * Hands the credits of processed events back to the servers that sent them. They are only counted
+     * here, the calls to the servers are made on the calls executor.
+     * @param events events that were processed
+     */
+    private void returnCredits(Iterable<EventEnvelope> events) {
+        if (creditWindow == 0 || pullMode)
+            return;
+        CreditReturns returns = creditReturns();
+        for (EventEnvelope event : events)
+            returns.add(event);
+        returns.send();
+    }
+
+
+    /**
+     * Hands the credit of a processed event back to the server that sent it, see returnCredits.
+     * @param event event that was processed
+     */
+    private void returnCredit(EventEnvelope event) {
+        if (creditWindow == 0 || pullMode)
+            return;
+        CreditReturns returns = creditReturns();
+        returns.add(event);
+        returns.send();
+    }
+
+
+    private CreditReturns creditReturns() {
+        CreditReturns returns = creditReturns;
+        if (returns == null) {
+            synchronized (this) {
+                if (creditReturns == null)
+                    creditReturns = new CreditReturns();
+                returns = creditReturns;
+            }
+        }
+        return returns;
+    }
+
+
+    /**
+     * The credits of processed events that were not handed back yet, counted per server, so a callback
+     * never waits on a call to a server. One task at a time on the calls executor sends them, with every
+     * credit counted until it runs.
+     */
+    private class CreditReturns implements Runnable {
+        private final ConcurrentHashMap<Integer, AtomicInteger> perNode = new ConcurrentHashMap<>();
+        private final AtomicBoolean queued = new AtomicBoolean();
+
+        void add(EventEnvelope event) {
+            int node = cluster == null ? 0 : cluster.nodeOf(event.getTopicID());
+            AtomicInteger count = perNode.get(node);
+            if (count == null) {
+                perNode.putIfAbsent(node, new AtomicInteger());
+                count = perNode.get(node);
+            }
+            count.incrementAndGet();
+        }
+
+        void send() {
+            if (queued.compareAndSet(false, true))
+                calls().execute(this);
+        }
+
+        /**
+         * Forgets the credits counted so far, as the servers start the agent over from a full window.
+         */
+        void clear() {
+            for (AtomicInteger count : perNode.values())
+                count.set(0);
+        }
+
+        public void run() {
+            //credits counted from now on need another run
+            queued.set(false);
+            for (Map.Entry<Integer, AtomicInteger> entry : perNode.entrySet()) {
+                int credits = entry.getValue().getAndSet(0);
+                if (credits == 0)
+                    continue;
+                try {
+                    serverForNode(entry.getKey()).grantCredits(agentID, credits);
+                } catch (RemoteException e) {
+                    forgetNode(entry.getKey()); //a new window is granted when it is bound again
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Switches the agent to pull mode: the servers stop calling it back and it fetches its events in
+     * batches of up to POLL_MAX_EVENTS, at its own pace.
+     * @throws RemoteException
+     */
+    public void usePull() throws RemoteException {
+        pullMode = true;
+        this.agentID = server.reConnect(this.agentID, null);
+        synchronized (this) {
+            owners = null;
+        }
+        startPolling();
+    }
+
+
+    /**
+     * Returns what the servers call back: this agent, or NULL in pull mode.
+     * @return Subscriber object or NULL
+     */
+    private Subscriber callback() {
+        return pullMode ? null : this;
+    }
+
+
+    /**
+     * Starts a thread per server that long polls it for the events of its topics.
+     */
+    private synchronized void startPolling() {
+        if (polling)
+            return;
+        polling = true;
+        int servers = cluster == null ? 1 : cluster.size();
+        for (int node = 0; node < servers; node++) {
+            final int target = node;
+            Thread poller = new Thread(new Runnable() {
+                public void run() {
+                    while (true) {
+                        try {
+                            EventBatch batch = serverForNode(target).poll(agentID, POLL_MAX_EVENTS, POLL_TIMEOUT_MILLIS);
+                            if (batch.size() > 0)
+                                notifyBatch(batch);
+                        } catch (RemoteException e) {
+                            forgetNode(target);
+                            try {
+                                Thread.sleep(1200);
+                            } catch (InterruptedException ex) {
+                                return;
+                            }
+                        }
+                    }
+                }
+            }, "poller-" + node);
+            //Daemon allows this thread not to block program from exiting
+            poller.setDaemon(true);
+            poller.start();
+        }
+    }
+
+
+    /**
+     * Returns the server owning a topic, so the call skips a hop through the home server.
+     * The home server is returned when the owner can't be reached, since it forwards the call.
+     * @param topic details of the topic
+     * @return RMI object of the server
+     */
+    private EventInterface serverFor(Topic topic) {
+        if (cluster == null || cluster.size() == 1 || topic.getTopicID() == 0)
+            return server;
+        return serverForNode(cluster.nodeOf(topic.getTopicID()));
+    }
+
+
+    /**
+     * Returns a server of the cluster, looking it up and binding this agent there on first use.
+     * The home server is returned when the other one can't be reached.
+     * @param node number of the server
+     * @return RMI object of the server
+     */
+    private synchronized EventInterface serverForNode(int node) {
+        if (cluster == null || cluster.size() == 1 || node == cluster.nodeOf(agentID))
+            return server;
+        if (owners == null)
+            owners = new HashMap<>();
+        EventInterface owner = owners.get(node);
+        if (owner == null) {
+            try {
+                owner = Transport.forAddress(cluster.getNode(node)).lookup(cluster.getNode(node));
+                // the owner delivers the events of its topics to this agent directly
+                owner.reConnect(agentID, callback());
+                if (creditWindow > 0)
+                    resetCredits(owner);
+                owners.put(node, owner);
+            } catch (Exception e) {
+                return server;
+            }
+        }
+        return owner;
+    }
+
+
+    /**
+     * Forgets the RMI object of the server owning a topic after a failed call, so it is looked up again.
+     * @param topic details of the topic
+     */
+    private void forgetServer(Topic topic) {
+        if (cluster != null)
+            forgetNode(cluster.nodeOf(topic.getTopicID()));
+    }
+
+
+    /**
+     * Forgets the RMI object of a server after a failed call, so it is looked up again.
+     * @param node number of the server
+     */
+    private synchronized void forgetNode(int node) {
+        if (owners != null)
+            owners.remove(node);
     }
 
 
@@ -86,18 +394,216 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
         for (Topic topic : subscriberTopics){
             System.out.print(topic);
         }
+        if (!subscriberKeywords.isEmpty())
+            System.out.println("Subscribed Keywords: " + String.join(", ", subscriberKeywords));
+    }
+
+
+
+
+    /**
+     * Hands what the agent receives to one listener on a thread of its own, so neither the delivery nor the
+     * other listeners wait for it. It reads the stores of received events and topics from its own position
+     * and tells the listener how much was overwritten before it got to it.
+     */
+    private class Dispatcher implements Runnable {
+        private final AgentListener listener;
+        private final Object signal;
+        private long nextEvent;
+        private long nextTopic;
+        private volatile boolean stopped;
+        private Thread thread;
+
+        Dispatcher(AgentListener listener, Object signal) {
+            this.listener = listener;
+            this.signal = signal;
+            this.nextEvent = receivedEvents.next();
+            this.nextTopic = receivedTopics.next();
+        }
+
+        void start() {
+            thread = new Thread(this, "agent-listener");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void stop() {
+            stopped = true;
+            thread.interrupt();
+        }
+
+        public void run() {
+            ArrayList<EventEnvelope> events = new ArrayList<>();
+            ArrayList<Topic> topics = new ArrayList<>();
+            try {
+                while (!stopped) {
+                    synchronized (signal) {
+                        // counted before looking, so an arrival either is seen here or sees the count
+                        idleListeners++;
+                        try {
+                            while (receivedEvents.next() == nextEvent && receivedTopics.next() == nextTopic)
+                                signal.wait();
+                        } finally {
+                            idleListeners--;
+                        }
+                    }
+                    long from = nextEvent;
+                    nextEvent = receivedEvents.read(from, events, DISPATCH_BATCH);
+                    long skippedEvents = nextEvent - from - events.size();
+                    from = nextTopic;
+                    nextTopic = receivedTopics.read(from, topics, DISPATCH_BATCH);
+                    long skippedTopics = nextTopic - from - topics.size();
+                    try {
+                        if (skippedEvents > 0 || skippedTopics > 0)
+                            listener.onSkipped(skippedEvents, skippedTopics);
+                        for (Topic topic : topics)
+                            listener.onTopic(topic);
+                        for (EventEnvelope event : events)
+                            listener.onEvent(event);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                    events.clear();
+                    topics.clear();
+                }
+            } catch (InterruptedException e) {
+                // removed
+            }
+        }
+    }
+
+
+    /**
+     * Adds a listener called with every event and topic the agent receives from now on, in order, on a thread
+     * of its own, so a slow listener holds up neither the delivery nor the other listeners.
+     * @param listener the listener
+     */
+    public synchronized void addListener(AgentListener listener) {
+        if (dispatchers == null) {
+            dispatchers = new CopyOnWriteArrayList<>();
+            signal = new Object();
+        }
+        Dispatcher dispatcher = new Dispatcher(listener, signal);
+        dispatchers.add(dispatcher);
+        dispatcher.start();
+    }
+
+
+    /**
+     * Removes a listener added with addListener.
+     * @param listener the listener
+     */
+    public synchronized void removeListener(AgentListener listener) {
+        if (dispatchers == null)
+            return;
+        for (Dispatcher dispatcher : dispatchers) {
+            if (dispatcher.listener == listener) {
+                dispatcher.stop();
+                dispatchers.remove(dispatcher);
+            }
+        }
+    }
+
+
+    /**
+     * Wakes up the listener threads after something was received, if there are any.
+     */
+    private void wakeListeners() {
+        Object dispatcherSignal = signal;
+        if (dispatcherSignal != null && idleListeners > 0) {
+            synchronized (dispatcherSignal) {
+                dispatcherSignal.notifyAll();
+            }
+        }
+    }
+
+
+    /**
+     * Processes every event received from now on with a handler running on a pool of workers. Events with the
+     * same key, by default the same topic, are handled one at a time in the order they arrived; others are
+     * handled in parallel. When the queue of a worker is full the delivery to the agent waits, and with flow
+     * control the credits of an event are only returned once it was handled.
+     * @param handler processes the events
+     * @param workers number of workers
+     * @param queueDepth most events waiting for one worker
+     * @param partitioner picks the key of an event, NULL for its topic
+     */
+    public void process(PartitionedProcessor.Handler handler, int workers, int queueDepth,
+                        PartitionedProcessor.Partitioner partitioner) {
+        PartitionedProcessor stage = new PartitionedProcessor(handler, partitioner, workers, queueDepth,
+                new PartitionedProcessor.Completion() {
+                    public void processed(List<EventEnvelope> events) {
+                        returnCredits(events);
+                    }
+                });
+        PartitionedProcessor previous;
+        synchronized (this) {
+            previous = processor;
+            processor = stage;
+        }
+        close(previous);
+    }
+
+
+    /**
+     * Stops processing received events, after handling the ones already queued.
+     */
+    public void stopProcessing() {
+        PartitionedProcessor stage;
+        synchronized (this) {
+            stage = processor;
+            processor = null;
+        }
+        close(stage);
     }
 
 
+    private void close(PartitionedProcessor stage) {
+        if (stage == null)
+            return;
+        try {
+            stage.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Returns the processing stage, to read its queue depths and counts.
+     * @return the stage, or NULL if events are not processed
+     */
+    public PartitionedProcessor getProcessor() {
+        return processor;
+    }
+
+
+    /**
+     * Hands a received event to the processing stage, waiting for room in the queue of its worker.
+     * @param stage the processing stage
+     * @param event details of the event
+     * @return true if the stage took the event, false if it was closed meanwhile or the wait was interrupted
+     */
+    private boolean submit(PartitionedProcessor stage, EventEnvelope event) {
+        try {
+            return stage.submit(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
 
 
     /**
      * It lists out the events that have been received by the agent.
      */
     public void listReceivedEvents() {
-        for (Event event : receivedEvents) {
+        for (EventEnvelope event : receivedEvents.toList()) {
             System.out.print(event);
         }
+        PartitionedProcessor stage = processor;
+        if (stage != null)
+            System.out.println(stage);
     }
 
 
@@ -106,41 +612,208 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
      * @param event Object that contains details of an event
      * @throws RemoteException
      */
-    public void notify(Event event) throws RemoteException {
-        System.out.println("Event Notification Received");
-        System.out.println("These are the Details: ");
-        System.out.println(event);
+    public void notify(EventEnvelope event) throws RemoteException {
         receivedEvents.add(event);
+        wakeListeners();
+        PartitionedProcessor stage = processor;
+        if (stage != null && submit(stage, event))
+            return; //its credits are returned once it was processed
+        returnCredit(event);
     }
 
 
     /**
-     * This function creates a thread to help the agent subscribe to a topic
-     * @param topic object that carries information about the topic
+     * This function helps notify several events that were published, in order.
+     * @param events Objects that contain details of the events
+     * @throws RemoteException
      */
-    public void subscribe(final Topic topic) {
-        new Thread(new Runnable() {
+    public void notifyBatch(EventBatch events) throws RemoteException {
+        for (EventEnvelope event : events)
+            receivedEvents.add(event);
+        wakeListeners();
+        PartitionedProcessor stage = processor;
+        if (stage == null) {
+            returnCredits(events);
+            return;
+        }
+        //events the stage refused, because it was stopped meanwhile, are done with as without a stage
+        for (EventEnvelope event : events) {
+            if (!submit(stage, event))
+                returnCredit(event);
+        }
+    }
+
+
+    /**
+     * Runs a remote call on the executor shared by the agents of this JVM, trying it again after a delay
+     * while the server can't be reached. A retry waits as a scheduled task, not in a thread.
+     * @param call the remote call
+     * @param topic topic whose owner is called, whose RMI object is forgotten after a failure, or NULL
+     * @param delayMillis time between attempts
+     * @return result of the call, failing with the last RemoteException after RETRY_ATTEMPTS attempts
+     */
+    private <T> CompletableFuture<T> callAsync(final RemoteCall<T> call, final Topic topic, final long delayMillis) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        calls().execute(new Runnable() {
+            private int attempts = 0;
+
             public void run() {
-                int attempts = 0;
-                while(++attempts < 20){
-                    try {
-                        if(server.addSubscriber((PubSubAgent.this.agentID), topic)){
-                            subscriberTopics.add(topic);
-                            System.out.print("Subscribed.");
-                            return;
-                        }
-                    } catch (RemoteException e) {
+                try {
+                    result.complete(call.call());
+                } catch (RemoteException e) {
+                    if (topic != null)
+                        forgetServer(topic);
+                    if (++attempts >= RETRY_ATTEMPTS) {
+                        result.completeExceptionally(e);
+                    } else {
                         System.err.println("Could not connect to server. Retrying...");
-                        try {
-                            Thread.sleep(1200);
-                        } catch (InterruptedException ex) {
-                            ex.printStackTrace();
-                        }
+                        calls().schedule(this, delayMillis, TimeUnit.MILLISECONDS);
                     }
+                } catch (RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            }
+        });
+        return result;
+    }
+
+
+    /**
+     * Returns the executor running the remote calls of the agents, starting it on first use.
+     * It has pubsub.agent.threads threads.
+     * @return the executor
+     */
+    private static synchronized ScheduledExecutorService calls() {
+        if (calls == null) {
+            calls = Executors.newScheduledThreadPool(Integer.getInteger("pubsub.agent.threads", DEFAULT_CALL_THREADS),
+                    new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "agent-call");
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return calls;
+    }
+
+
+    /**
+     * This function helps the agent subscribe to a topic without waiting for the server
+     * @param topic object that carries information about the topic
+     * @return True if subscribed, False if the server refused
+     */
+    public CompletableFuture<Boolean> subscribeAsync(final Topic topic) {
+        return callAsync(new RemoteCall<Boolean>() {
+            public Boolean call() throws RemoteException {
+                if (!serverFor(topic).addSubscriber(PubSubAgent.this.agentID, topic))
+                    return false;
+                synchronized (subscriberTopics) {
+                    subscriberTopics.add(topic);
                 }
+                return true;
+            }
+        }, topic, 1200);
+    }
+
+
+    /**
+     * This function helps the agent subscribe to a topic
+     * @param topic object that carries information about the topic
+     */
+    public void subscribe(final Topic topic) {
+        subscribeAsync(topic).whenComplete((subscribed, failure) -> {
+            if (failure == null && subscribed)
+                System.out.print("Subscribed.");
+            else
                 System.err.println("Couldn't subscribe to " + topic.getTopicID() + " - " + topic.getTopicName());
+        });
+    }
+
+
+    /**
+     * This function helps the agent subscribe to the events carrying a keyword without waiting for the server
+     * @param keyword word the events must carry
+     * @return True if subscribed, False if it already was
+     */
+    public CompletableFuture<Boolean> subscribeKeywordAsync(final String keyword) {
+        return callAsync(new RemoteCall<Boolean>() {
+            public Boolean call() throws RemoteException {
+                if (!server.addKeywordSubscriber(PubSubAgent.this.agentID, keyword))
+                    return false;
+                synchronized (subscriberKeywords) {
+                    subscriberKeywords.add(keyword);
+                }
+                return true;
+            }
+        }, null, RETRY_DELAY_MILLIS);
+    }
+
+
+    /**
+     * This function helps the agent subscribe to the events carrying a keyword
+     * @param keyword word the events must carry
+     */
+    public void subscribeKeyword(final String keyword) {
+        subscribeKeywordAsync(keyword).whenComplete((subscribed, failure) -> {
+            if (failure == null && subscribed)
+                System.out.print("Subscribed to Keyword: " + keyword);
+            else
+                System.err.println("Couldn't subscribe to Keyword: " + keyword);
+        });
+    }
+
+
+    /**
+     * This function helps an agent to unsubscribe from the events carrying a keyword without waiting for
+     * the server
+     * @param keyword word it subscribed to
+     * @return True if unsubscribed, False if it was not subscribed
+     */
+    public CompletableFuture<Boolean> unsubscribeKeywordAsync(final String keyword) {
+        return callAsync(new RemoteCall<Boolean>() {
+            public Boolean call() throws RemoteException {
+                if (!server.removeKeywordSubscriber(PubSubAgent.this.agentID, keyword))
+                    return false;
+                synchronized (subscriberKeywords) {
+                    subscriberKeywords.remove(keyword);
+                }
+                return true;
+            }
+        }, null, RETRY_DELAY_MILLIS);
+    }
+
+
+    /**
+     * This function helps an agent to unsubscribe from the events carrying a keyword
+     * @param keyword word it subscribed to
+     */
+    public void unsubscribeKeyword(final String keyword) {
+        unsubscribeKeywordAsync(keyword).whenComplete((unsubscribed, failure) -> {
+            if (failure == null && unsubscribed)
+                System.out.println("Unsubscribed from the Keyword: " + keyword);
+            else
+                System.err.println("Couldn't Unsubscribe from Keyword: " + keyword);
+        });
+    }
+
+
+    /**
+     * This function helps an agent to unsubscribe from a topic without waiting for the server
+     * @param topic object that contains the details of a topic
+     * @return True if unsubscribed, False if it was not subscribed
+     */
+    public CompletableFuture<Boolean> unsubscribeAsync(final Topic topic) {
+        return callAsync(new RemoteCall<Boolean>() {
+            public Boolean call() throws RemoteException {
+                if (!serverFor(topic).removeSubscriber(PubSubAgent.this.agentID, topic))
+                    return false;
+                synchronized (subscriberTopics) {
+                    subscriberTopics.remove(topic);
+                }
+                return true;
             }
-        }).start();
+        }, topic, RETRY_DELAY_MILLIS);
     }
 
 
@@ -149,28 +822,33 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
      * @param topic object that contains the details of a topic
      */
     public void unsubscribe(final Topic topic) {
+        unsubscribeAsync(topic).whenComplete((unsubscribed, failure) -> {
+            if (failure == null && unsubscribed)
+                System.out.println("Unsubscribed from the Topic: " + topic.getTopicID() + " - " + topic.getTopicName());
+            else
+                System.err.println("Couldn't Unsubscribe from " + topic.getTopicID() + " - " + topic.getTopicName());
+        });
+    }
 
-        new Thread(new Runnable() {
-            public void run() {
-                int attempts = 0;
-                while(++attempts < 20) {
-                    try {
-                        if (server.removeSubscriber(PubSubAgent.this.agentID, topic))
-                            subscriberTopics.remove(topic);
-                        System.out.println("Unsubscribed from the Topic: " + topic.getTopicID() + " - " + topic.getTopicName());
-                        return;
-                    } catch(RemoteException e) {
-                            System.err.println("Could not connect to server. Retrying...");
-                        try {
-                            Thread.sleep(800);
-                        } catch(Exception ex) {
-                            ex.printStackTrace();
-                        }
-                    }
+
+    /**
+     * This function helps an agent to unsubscribe from all topics and keywords without waiting for the server
+     * @return True if unsubscribed
+     */
+    public CompletableFuture<Boolean> unsubscribeAsync() {
+        return callAsync(new RemoteCall<Boolean>() {
+            public Boolean call() throws RemoteException {
+                if (!server.removeSubscriber(PubSubAgent.this.agentID))
+                    return false;
+                synchronized (subscriberKeywords) {
+                    subscriberKeywords.clear();
                 }
-                System.err.println("Couldn't Unsubscribe from " + topic.getTopicID() + " - " + topic.getTopicName());
+                synchronized (subscriberTopics) {
+                    subscriberTopics.clear();
+                }
+                return true;
             }
-        }).start();
+        }, null, RETRY_DELAY_MILLIS);
     }
 
 
@@ -178,29 +856,42 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
      * This function helps an agent to unsubscribe from all topics.
      */
     public void unsubscribe() {
-        new Thread(new Runnable() {
-            public void run() {
-                int attempts = 0;
-                while(++attempts < 20) {
-                    try {
-                        if (server.removeSubscriber(PubSubAgent.this.agentID)) {
-                            subscriberKeywords.clear();
-                            subscriberTopics.clear();
-                        }
-                        System.out.print("Unsubscribed from all Topics.");
-                        return;
-                    } catch(RemoteException e) {
-                        System.err.println("Could not connect to server. Retrying...");
-                        try {
-                            Thread.sleep(800);
-                        } catch(Exception ex) {
-                            ex.printStackTrace();
-                        }
-                    }
-                }
+        unsubscribeAsync().whenComplete((unsubscribed, failure) -> {
+            if (failure == null && unsubscribed)
+                System.out.print("Unsubscribed from all Topics.");
+            else
                 System.err.println("Couldn't Unsubscribe from all the topics...");
+        });
+    }
+
+
+    /**
+     * This function has the retained events of a topic sent again from an offset, without waiting for the server
+     * @param topic object that contains the details of a topic
+     * @param offset offset of the first event, or -1 to resume from the committed offset
+     * @return number of events that will be sent again
+     */
+    public CompletableFuture<Integer> replayAsync(final Topic topic, final long offset) {
+        return callAsync(new RemoteCall<Integer>() {
+            public Integer call() throws RemoteException {
+                return serverFor(topic).replay(PubSubAgent.this.agentID, topic.getTopicID(), offset);
             }
-        }).start();
+        }, topic, RETRY_DELAY_MILLIS);
+    }
+
+
+    /**
+     * This function has the retained events of a topic sent again from an offset
+     * @param topic object that contains the details of a topic
+     * @param offset offset of the first event, or -1 to resume from the committed offset
+     */
+    public void replay(final Topic topic, final long offset) {
+        replayAsync(topic, offset).whenComplete((count, failure) -> {
+            if (failure == null)
+                System.out.println(count + " events of " + topic.getTopicName() + " will be sent again.");
+            else
+                System.err.println("Couldn't replay " + topic.getTopicID() + " - " + topic.getTopicName());
+        });
     }
 
 
@@ -222,42 +913,128 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
     public void eventsPublishedByPub() {
         int index = 1;
         System.out.println("Events published by this publisher: ");
-        for (Event event : pubEvents) {
-            System.out.println(index + "->" + event + "\n");
-            index++;
+        synchronized (pubEvents) {
+            for (Event event : pubEvents) {
+                System.out.println(index + "->" + event + "\n");
+                index++;
+            }
+        }
+    }
+
+
+    /**
+     * This helps to publish an event without waiting for the server.
+     * The event is added to a batch and sent in the background. When the publish buffer is full it waits
+     * for room, unless pubsub.publish.blockWhenFull is false.
+     * @param event Details associated with the event
+     * @return ID the server gave the event, 0 if it could not be published; it fails if there was no room
+     */
+    public CompletableFuture<Integer> publishAsync(final Event event) {
+        if (event == null)
+            return CompletableFuture.completedFuture(0);
+        try {
+            return publisher().add(event);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            CompletableFuture<Integer> result = new CompletableFuture<>();
+            result.completeExceptionally(e);
+            return result;
         }
     }
 
 
     /**
      * This helps to publish an event if the topic exists.
+     * It is listed as published once the server gave it an ID.
      * @param event Details associated with the event
      */
     public void publish(final Event event) {
-        if (event == null)
+        publishAsync(event).whenComplete((id, failure) -> {
+            if (failure != null)
+                System.err.println("Couldn't Publish Event: " + event.getTitle() + " - " + failure.getMessage());
+        });
+    }
+
+
+    /**
+     * Waits until every event published so far was sent to the servers.
+     */
+    public void flushPublished() {
+        PublishAccumulator accumulator;
+        synchronized (this) {
+            accumulator = publisher;
+        }
+        if (accumulator == null)
             return;
+        try {
+            accumulator.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        new Thread(new Runnable() {
-            public void run() {
-                int attempts = 0;
-                while(++attempts < 20) {
-                    try {
-                        int uniqueID = server.publish(event);
-                        if (uniqueID != 0)
-                            pubEvents.add(event.setID(uniqueID) );
-                        return;
-                    } catch(RemoteException e) {
-                        System.err.println("Could not connect to server. Retrying...");
-                        try {
-                            Thread.sleep(800);
-                        } catch(Exception ex) {
-                            ex.printStackTrace();
-                        }
+
+    /**
+     * Returns the accumulator of published events, starting it on first use.
+     * Its settings come from the pubsub.publish.* system properties.
+     * @return the accumulator
+     */
+    private synchronized PublishAccumulator publisher() {
+        if (publisher == null) {
+            publisher = new PublishAccumulator(new PublishAccumulator.Sender() {
+                    public CompletableFuture<int[]> send(ArrayList<Event> events) {
+                        return sendBatch(events);
                     }
+                },
+                Integer.getInteger("pubsub.publish.batch", PublishAccumulator.DEFAULT_MAX_BATCH),
+                Integer.getInteger("pubsub.publish.lingerMillis", PublishAccumulator.DEFAULT_LINGER_MILLIS),
+                Integer.getInteger("pubsub.publish.buffer", PublishAccumulator.DEFAULT_CAPACITY),
+                Boolean.parseBoolean(System.getProperty("pubsub.publish.blockWhenFull", "true")),
+                Integer.getInteger("pubsub.publish.inFlight", PublishAccumulator.DEFAULT_MAX_IN_FLIGHT));
+        }
+        return publisher;
+    }
+
+
+    /**
+     * Sends a batch of events, one call to the owner of each topic, retrying a server that can't be reached.
+     * @param events details of the events
+     * @return IDs of the events in order, 0 for an event that could not be published
+     */
+    private CompletableFuture<int[]> sendBatch(final ArrayList<Event> events) {
+        // positions in the batch of the events going to every server
+        LinkedHashMap<EventInterface, ArrayList<Integer>> perServer = new LinkedHashMap<>();
+        for (int index = 0; index < events.size(); index++)
+            perServer.computeIfAbsent(serverFor(events.get(index).getTopic()), key -> new ArrayList<>()).add(index);
+        final int[] ids = new int[events.size()];
+        ArrayList<CompletableFuture<Void>> requests = new ArrayList<>();
+        for (final ArrayList<Integer> positions : perServer.values()) {
+            final ArrayList<Event> batch = new ArrayList<>(positions.size());
+            for (int index : positions)
+                batch.add(events.get(index));
+            final Topic topic = batch.get(0).getTopic();
+            requests.add(callAsync(new RemoteCall<int[]>() {
+                public int[] call() throws RemoteException {
+                    return serverFor(topic).publishBatch(batch);
                 }
-                System.err.println("Couldn't Publish Event: " + event.getID() + " - " + event.getTitle());
-            }
-        }).start();
+            }, topic, RETRY_DELAY_MILLIS).handle((result, failure) -> {
+                if (failure != null) {
+                    for (Event event : batch)
+                        System.err.println("Couldn't Publish Event: " + event.getTitle() + " - "
+                                + event.getTopic().getTopicName());
+                    return null;
+                }
+                synchronized (pubEvents) {
+                    for (int index = 0; index < result.length; index++) {
+                        ids[positions.get(index)] = result[index];
+                        if (result[index] != 0)
+                            pubEvents.add(batch.get(index).setID(result[index]));
+                    }
+                }
+                return null;
+            }));
+        }
+        return CompletableFuture.allOf(requests.toArray(new CompletableFuture<?>[0])).thenApply(done -> ids);
     }
 
 
@@ -267,42 +1044,44 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
      * @throws RemoteException
      */
     public void notifyAd(Topic topic) throws RemoteException {
-        System.out.println("Topic Advertisement Received");
-        System.out.println("These are the Details: ");
-        System.out.println(topic);
+        topicCache().add(topic);
         receivedTopics.add(topic);
+        wakeListeners();
     }
 
 
     /**
-     * This function helps advertise a new topic that has been created.
+     * This function helps advertise a new topic without waiting for the server.
      * @param t contains details of a topic
+     * @return unique ID of the topic, 0 if a topic of that name exists
      */
-    public void advertise(final Topic t) {
-
-        new Thread(new Runnable() {
-            public void run() {
-                int attempts = 0;
-                while(++attempts < 20) {
-                    try {
-                        int uniqueID = server.addTopic(t);
-                        if (uniqueID != 0)
-                            pubTopics.add(t.setTopicID(uniqueID));
-                        else
-                            System.err.println("Topic already exists on server. Please Select Another Name...");
-                        return;
-                    } catch(RemoteException e) {
-                        System.err.println("Could not connect to server. Retrying...");
-                        try {
-                            Thread.sleep(800);
-                        } catch(Exception ex) {
-                            ex.printStackTrace();
-                        }
+    public CompletableFuture<Integer> advertiseAsync(final Topic t) {
+        return callAsync(new RemoteCall<Integer>() {
+            public Integer call() throws RemoteException {
+                int uniqueID = server.addTopic(t);
+                if (uniqueID != 0) {
+                    synchronized (pubTopics) {
+                        pubTopics.add(t.setTopicID(uniqueID));
                     }
+                    topicCache().add(t);
                 }
-                System.err.println("Couldn't Advertise Topic: " +  t.getTopicID() + " - " + t.getTopicName());
+                return uniqueID;
             }
-        }).start();
+        }, null, RETRY_DELAY_MILLIS);
+    }
+
+
+    /**
+     * This function helps advertise a new topic that has been created.
+     * @param t contains details of a topic
+     */
+    public void advertise(final Topic t) {
+        advertiseAsync(t).whenComplete((uniqueID, failure) -> {
+            if (failure != null)
+                System.err.println("Couldn't Advertise Topic: " +  t.getTopicID() + " - " + t.getTopicName());
+            else if (uniqueID == 0)
+                System.err.println("Topic already exists on server. Please Select Another Name...");
+        });
     }
 
 
@@ -315,26 +1094,66 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
         Scanner input = new Scanner(System.in);
         System.out.println("Enter the name of the Topic:");
         String identifier = input.nextLine().trim();
-        List<Topic> topicList;
+        Topic topic;
         try {
-            topicList = server.getTopics();
+            topic = findTopic(identifier);
         } catch (RemoteException f) {
             System.err.println("Couldn't Connect to Server...");
             return null;
         }
-        try {
-            for (Topic t : topicList ) {
-                String topicName = t.getTopicName().toLowerCase();
-                if (topicName.equals(identifier.toLowerCase())) {
-                    return t;
-                }
-            }
+        if (topic == null)
             System.out.println("Topic is not listed.");
+        return topic;
+    }
+
+
+    /**
+     * Finds a topic by name, ignoring case. Topics the agent already knows of are found without
+     * asking the server, which is only asked when the name is not known.
+     * @param name Name of the topic
+     * @return topic object if found or NULL.
+     * @throws RemoteException
+     */
+    public Topic findTopic(String name) throws RemoteException {
+        return topicCache().get(server, name);
+    }
+
+
+    /**
+     * Returns every topic of the server, fetching them only if the server has topics the agent does not know of.
+     * @return List of topics
+     * @throws RemoteException
+     */
+    public ArrayList<Topic> getTopics() throws RemoteException {
+        return topicCache().topics(server);
+    }
+
 
-        } catch (NumberFormatException e) {
-            System.err.println("This is not a Name");
+    /**
+     * Returns the topics whose name starts with some letters, ignoring case, as found by the server.
+     * @param prefix first letters of the names
+     * @param maxTopics most topics returned
+     * @return List of topics in alphabetical order
+     * @throws RemoteException
+     */
+    public ArrayList<Topic> findTopicsByPrefix(String prefix, int maxTopics) throws RemoteException {
+        ArrayList<Topic> found = server.findTopicsByPrefix(prefix, maxTopics);
+        for (Topic topic : found)
+            topicCache().add(topic);
+        return found;
+    }
+
+
+    private TopicCache topicCache() {
+        TopicCache cache = topicCache;
+        if (cache == null) {
+            synchronized (this) {
+                if (topicCache == null)
+                    topicCache = new TopicCache();
+                cache = topicCache;
+            }
         }
-        return null;
+        return cache;
     }
 
 
@@ -345,6 +1164,7 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
      * @throws RemoteException
      */
     public void saveState() throws RemoteException {
+        flushPublished();
         server.unbind(this.agentID);
         try {
             ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("agent.dat"));
@@ -449,9 +1269,12 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
             System.out.println(" 2: Unsubscribe from a Topic.");
             System.out.println(" 3: Unsubscribe from all Topics.");
             System.out.println(" 4: Display subscribed topics.");
-            System.out.println(" 5: View all available topics.");
+            System.out.println(" 5: View available topics.");
             System.out.println(" 6: View all received events.");
-            System.out.println(" 7: Save & Quit.");
+            System.out.println(" 7: Subscribe to a Keyword.");
+            System.out.println(" 8: Unsubscribe from a Keyword.");
+            System.out.println(" 9: Replay a Topic from an offset.");
+            System.out.println(" 10: Save & Quit.");
             System.out.print("Enter an Option: ");
 
             int choice = in.nextInt();
@@ -482,8 +1305,12 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
                     break;
                 }
                 case 5: {
+                    System.out.println("Enter the first letters of the Topic, or nothing for all Topics:");
+                    in = new Scanner(System.in);
+                    String prefix = in.nextLine().trim();
                     try {
-                        ArrayList<Topic> allTopics = server.getTopics();
+                        ArrayList<Topic> allTopics = prefix.isEmpty() ? getTopics()
+                                : findTopicsByPrefix(prefix, TOPIC_SEARCH_LIMIT);
                         for (Topic t : allTopics)
                             System.out.print(t);
                     } catch (RemoteException e) {
@@ -496,6 +1323,41 @@ public class PubSubAgent extends UnicastRemoteObject implements Publisher, Subsc
                     break;
                 }
                 case 7: {
+                    System.out.println("Enter the Keyword:");
+                    in = new Scanner(System.in);
+                    String keyword = in.nextLine().trim();
+                    if (keyword.length() > 0)
+                        subscribeKeyword(keyword);
+                    break;
+                }
+                case 8: {
+                    System.out.println("Enter the Keyword:");
+                    in = new Scanner(System.in);
+                    String keyword = in.nextLine().trim();
+                    if (keyword.length() > 0)
+                        unsubscribeKeyword(keyword);
+                    break;
+                }
+                case 9: {
+                    topic = findTopic();
+                    if (topic != null) {
+                        try {
+                            System.out.println("Committed offset: "
+                                    + serverFor(topic).getCommittedOffset(agentID, topic.getTopicID()));
+                        } catch (RemoteException e) {
+                            forgetServer(topic);
+                        }
+                        System.out.println("Enter the offset to replay from, -1 for the committed offset:");
+                        in = new Scanner(System.in);
+                        try {
+                            replay(topic, Long.parseLong(in.nextLine().trim()));
+                        } catch (NumberFormatException e) {
+                            System.out.println("This is not an offset.");
+                        }
+                    }
+                    break;
+                }
+                case 10: {
                     breakLoop = true;
                     in.close();
                     saveState();
@@ -0,0 +1,218 @@
+package edu.rit.cs;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A class that collects the events an agent publishes and hands them to the servers in batches, so a
+ * publisher does not wait for the network. A batch is sent once it holds maxBatch events or its oldest event
+ * waited lingerMillis. One sender thread takes the batches in order and starts at most maxInFlight requests
+ * at once; with more than one, the events of a topic can reach the server out of order. The requests run
+ * asynchronously, so the sender thread never waits for the network.
+ * At most capacity events are held, counting the ones being sent, after which add blocks or fails.
+ */
+public class PublishAccumulator {
+
+    public static final int DEFAULT_MAX_BATCH = 500;
+    public static final int DEFAULT_LINGER_MILLIS = 5;
+    public static final int DEFAULT_CAPACITY = 10000;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 1;
+
+    /**
+     * Starts sending one batch, retrying as it sees fit, without waiting for it.
+     */
+    public interface Sender {
+        /**
+         * @param events details of the events
+         * @return IDs of the events in order, 0 for an event that was not published
+         */
+        CompletableFuture<int[]> send(ArrayList<Event> events);
+    }
+
+    /**
+     * Events sent in one request, with what each of their publishers waits for.
+     */
+    private static class Batch {
+        final ArrayList<Event> events = new ArrayList<>();
+        final ArrayList<CompletableFuture<Integer>> results = new ArrayList<>();
+        final long created = System.currentTimeMillis();
+    }
+
+    private final Sender sender;
+    private final int maxBatch;
+    private final long lingerMillis;
+    private final int capacity;
+    private final boolean blockWhenFull;
+    private final int maxInFlight;
+
+    // Full batches waiting to be sent, oldest first, guarded by this like the fields below
+    private ArrayDeque<Batch> ready;
+    // Batch still taking events, NULL if none
+    private Batch open;
+    // Events added and not sent yet, including the ones in requests
+    private int held;
+    private int inFlight;
+    // Callers of flush waiting, while there are any batches go out without lingering
+    private int flushing;
+    private boolean closed;
+
+
+    /**
+     * Constructor of the class. It starts the sender thread.
+     * @param sender sends the batches
+     * @param maxBatch most events in one request
+     * @param lingerMillis time a partly filled batch waits for more events
+     * @param capacity most events held before add blocks or fails
+     * @param blockWhenFull whether add waits for room instead of failing
+     * @param maxInFlight most requests at once
+     */
+    public PublishAccumulator(Sender sender, int maxBatch, long lingerMillis, int capacity, boolean blockWhenFull,
+                              int maxInFlight) {
+        this.sender = sender;
+        this.maxBatch = Math.max(1, maxBatch);
+        this.lingerMillis = Math.max(0, lingerMillis);
+        this.capacity = Math.max(this.maxBatch, capacity);
+        this.blockWhenFull = blockWhenFull;
+        this.maxInFlight = Math.max(1, maxInFlight);
+        ready = new ArrayDeque<>();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    sendBatches();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "publish-sender");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Adds an event to the batch being filled.
+     * @param event details of the event
+     * @return the ID the server gives the event, 0 if it was not published; it fails with an
+     * IllegalStateException if there was no room or the accumulator is closed
+     * @throws InterruptedException if interrupted while waiting for room
+     */
+    public synchronized CompletableFuture<Integer> add(Event event) throws InterruptedException {
+        CompletableFuture<Integer> result = new CompletableFuture<>();
+        while (held >= capacity && !closed && blockWhenFull)
+            wait();
+        if (closed || held >= capacity) {
+            result.completeExceptionally(new IllegalStateException(closed ? "The publisher is closed."
+                    : "The publish buffer is full."));
+            return result;
+        }
+        if (open == null)
+            open = new Batch();
+        open.events.add(event);
+        open.results.add(result);
+        held++;
+        if (open.events.size() >= maxBatch) {
+            ready.add(open);
+            open = null;
+            notifyAll();
+        } else if (open.events.size() == 1) {
+            notifyAll(); //the sender thread starts timing the linger
+        }
+        return result;
+    }
+
+    /**
+     * Sends everything added so far without lingering and waits until it was sent.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void flush() throws InterruptedException {
+        flushing++;
+        notifyAll();
+        try {
+            while (held > 0)
+                wait();
+        } finally {
+            flushing--;
+        }
+    }
+
+    /**
+     * Sends everything added so far and stops the sender thread. Events added later are refused.
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void close() throws InterruptedException {
+        flush();
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Number of events added and not sent yet.
+     * @return Number of events
+     */
+    public synchronized int size() {
+        return held;
+    }
+
+    /**
+     * Loop of the sender thread: takes the batches in order and starts a request for each.
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private void sendBatches() throws InterruptedException {
+        while (true) {
+            final Batch batch = nextBatch();
+            if (batch == null)
+                return;
+            CompletableFuture<int[]> request;
+            try {
+                request = sender.send(batch.events);
+            } catch (RuntimeException e) {
+                request = new CompletableFuture<>();
+                request.completeExceptionally(e);
+            }
+            request.whenComplete((ids, failure) -> {
+                synchronized (PublishAccumulator.this) {
+                    inFlight--;
+                    held -= batch.events.size();
+                    PublishAccumulator.this.notifyAll();
+                }
+                for (int index = 0; index < batch.results.size(); index++) {
+                    if (failure != null)
+                        batch.results.get(index).completeExceptionally(failure);
+                    else
+                        batch.results.get(index).complete(index < ids.length ? ids[index] : 0);
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits until a batch may be sent: a request is free and a batch is full, lingered long enough or is
+     * being flushed.
+     * @return the batch, or NULL once closed and empty
+     * @throws InterruptedException if the thread is interrupted
+     */
+    private synchronized Batch nextBatch() throws InterruptedException {
+        while (true) {
+            if (inFlight < maxInFlight) {
+                Batch batch = ready.poll();
+                if (batch == null && open != null) {
+                    long linger = open.created + lingerMillis - System.currentTimeMillis();
+                    if (linger > 0 && flushing == 0 && !closed) {
+                        wait(linger);
+                        continue;
+                    }
+                    batch = open;
+                    open = null;
+                }
+                if (batch != null) {
+                    inFlight++;
+                    return batch;
+                }
+                if (closed)
+                    return null;
+            }
+            wait();
+        }
+    }
+}
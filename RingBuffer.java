@@ -0,0 +1,92 @@
+package edu.rit.cs;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A store keeping the latest items added to it, overwriting the oldest once it is full, so it never grows.
+ * Every item gets a sequence number, counted from 0 over the life of the store, which readers keep as their
+ * position so they can tell how many items were overwritten before they got to them.
+ */
+public class RingBuffer<T> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final Object[] items;
+    // Sequence the next item gets, which is also the number of items ever added
+    private long next;
+
+
+    /**
+     * Constructor of the class. It creates an empty store.
+     * @param capacity most items kept
+     */
+    public RingBuffer(int capacity) {
+        items = new Object[Math.max(1, capacity)];
+    }
+
+    /**
+     * Adds an item, overwriting the oldest one if the store is full.
+     * @param item the item
+     */
+    public synchronized void add(T item) {
+        items[(int) (next % items.length)] = item;
+        next++;
+    }
+
+    /**
+     * Returns the sequence the next item gets.
+     * @return sequence number
+     */
+    public synchronized long next() {
+        return next;
+    }
+
+    /**
+     * Returns the sequence of the oldest item kept.
+     * @return sequence number, equal to next() when the store is empty
+     */
+    public synchronized long first() {
+        return Math.max(0, next - items.length);
+    }
+
+    /**
+     * Copies the items kept from a sequence on, oldest first. Items overwritten before then are skipped.
+     * @param from sequence of the first item wanted
+     * @param into list the items are added to
+     * @param maxItems most items to copy
+     * @return sequence after the last item copied
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized long read(long from, List<T> into, int maxItems) {
+        long sequence = Math.max(from, next - items.length);
+        for (int count = 0; sequence < next && count < maxItems; count++, sequence++)
+            into.add((T) items[(int) (sequence % items.length)]);
+        return sequence;
+    }
+
+    /**
+     * Returns the items kept, oldest first.
+     * @return List of items
+     */
+    public ArrayList<T> toList() {
+        ArrayList<T> list = new ArrayList<>();
+        read(0, list, items.length);
+        return list;
+    }
+
+    /**
+     * Number of items kept.
+     * @return Number of items
+     */
+    public synchronized int size() {
+        return (int) Math.min(next, items.length);
+    }
+
+    /**
+     * Most items kept.
+     * @return capacity of the store
+     */
+    public int capacity() {
+        return items.length;
+    }
+}
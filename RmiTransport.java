@@ -0,0 +1,51 @@
+package edu.rit.cs;
+import java.io.IOException;
+import java.rmi.Naming;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * The transport using Java RMI. The server is bound in an RMI registry, and agents pass their own
+ * RMI objects so the server can call them back.
+ */
+public class RmiTransport implements Transport {
+
+    private static final RmiTransport INSTANCE = new RmiTransport();
+
+
+    private RmiTransport() {
+    }
+
+    /**
+     * Returns the only instance of the class.
+     * @return the RMI transport
+     */
+    public static RmiTransport getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Binds the server in the RMI registry, replacing whatever was bound under the name.
+     * @param address RMI name of the server
+     * @param service server, which has to be an exported RMI object
+     * @throws IOException if the registry can't be reached
+     */
+    public void bind(String address, EventInterface service) throws IOException {
+        Naming.rebind(address, (Remote) service);
+    }
+
+    /**
+     * Looks the server up in the RMI registry.
+     * @param address RMI name of the server
+     * @return RMI object of the server
+     * @throws IOException if it is not bound or the registry can't be reached
+     */
+    public EventInterface lookup(String address) throws IOException {
+        try {
+            return (EventInterface) Naming.lookup(address);
+        } catch (NotBoundException e) {
+            throw new RemoteException("Nothing is bound at " + address, e);
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package edu.rit.cs;
+import java.io.File;
 import java.net.InetAddress;
+import java.net.URI;
 import java.rmi.*;
 import java.rmi.RemoteException;
 import java.lang.*;
@@ -8,10 +10,13 @@ import java.rmi.registry.LocateRegistry;
 /**
  * The function helps setup the Server of the system.
  * Hostname and port are set and it does no take command line arguments.
+ * To run several servers as a cluster, every server is given the same list of names and its own position in it:
+ *      -Dpubsub.cluster.nodes=//host1:1099/EventManager,//host2:1100/EventManager
+ *      -Dpubsub.cluster.index=0
  */
 public class Server {
 
-
+    public static final String DEFAULT_NAME = "//rmiserver:1099/EventManager";
 
     private int port = 1099;
     private String hostName = "rmiserver";
@@ -22,24 +27,58 @@ public class Server {
      */
     public Server() {
         try {
+            ClusterNode cluster = clusterNode();
+            String name = cluster.getView().getNode(cluster.getIndex());
+            URI uri = uriOf(name);
+            hostName = uri.getHost();
+            if (uri.getPort() > 0)
+                port = uri.getPort();
             if (hostName.length() == 0)
                 hostName = "rmiserver";
-            manager = new EventManager();
+            // -Dpubsub.log.dir=<directory> keeps undelivered events on disk across restarts
+            String logDir = System.getProperty("pubsub.log.dir");
+            manager = new EventManager(logDir == null ? null : new File(logDir),
+                    Integer.getInteger("pubsub.shards", 0), cluster);
             System.out.println("Event Manager object created.");
-            Naming.rebind("//rmiserver:1099/EventManager", manager);
+            Transport.forAddress(name).bind(name, manager);
             System.out.println("Rebind complete.");
             System.out.println("EventManager bound in registry at " + hostName + ":" + port);
+            if (cluster.getView().size() > 1)
+                System.out.println("Server " + cluster.getIndex() + " of a cluster of " + cluster.getView().size());
 
             // This notifies the pending events and pending topics to reconnecting agents
             manager.startService();
-            manager.startServiceAds();
         } catch (Exception e) {
-            System.out.println( "EventManager error");
+            System.out.println( "EventManager error: " + e.getMessage());
             System.exit(1);
         }
     }
 
 
+    /**
+     * Parses the name of a server, which may leave out the rmi: scheme.
+     * @param name name of the server
+     * @return name as a URI
+     * @throws Exception if the name is invalid
+     */
+    private static URI uriOf(String name) throws Exception {
+        return new URI(name.startsWith("//") ? "rmi:" + name : name);
+    }
+
+    /**
+     * Reads the place of this server in the cluster from the system properties.
+     * @return cluster of the server, a cluster of one if no other servers are given
+     */
+    private static ClusterNode clusterNode() {
+        String nodes = System.getProperty("pubsub.cluster.nodes");
+        if (nodes == null || nodes.trim().isEmpty())
+            return ClusterNode.single(DEFAULT_NAME);
+        String[] names = nodes.split(",");
+        for (int index = 0; index < names.length; index++)
+            names[index] = names[index].trim();
+        return new ClusterNode(new ClusterView(names), Integer.getInteger("pubsub.cluster.index", 0));
+    }
+
     /**
      * Function to setup the RMI registry on a port and then provide a server console.
      * @param args
@@ -47,12 +86,27 @@ public class Server {
      */
     public static void main(String[] args) throws RemoteException {
         System.setSecurityManager(new SecurityManager());
-        try { //special exception handler for registry creation
-            LocateRegistry.createRegistry(1099);
-            System.out.println("java RMI registry created.");
-        } catch (RemoteException e) {
-            LocateRegistry.getRegistry();
-            System.err.println("java RMI registry already exists.");
+        int port = 1099;
+        boolean rmi = true;
+        try {
+            ClusterNode cluster = clusterNode();
+            URI uri = uriOf(cluster.getView().getNode(cluster.getIndex()));
+            // a server on the NIO transport listens on its own port and needs no RMI registry
+            rmi = !uri.toString().startsWith(NioTransport.SCHEME);
+            if (uri.getPort() > 0)
+                port = uri.getPort();
+        } catch (Exception e) {
+            System.err.println("Invalid cluster settings: " + e.getMessage());
+            System.exit(1);
+        }
+        if (rmi) {
+            try { //special exception handler for registry creation
+                LocateRegistry.createRegistry(port);
+                System.out.println("java RMI registry created.");
+            } catch (RemoteException e) {
+                LocateRegistry.getRegistry();
+                System.err.println("java RMI registry already exists.");
+            }
         }
 
         Server server = new Server();
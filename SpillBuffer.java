@@ -0,0 +1,129 @@
+package edu.rit.cs;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+
+/**
+ * A first in, first out file of events that keeps what a slow subscriber can't take yet out of the heap.
+ * Every event is written as [length][envelope in the WireCodec format] at the end of the file and read back
+ * from the front. The file is emptied once everything in it was read. It is scratch space only, the event
+ * log is what survives a restart, so an old file is overwritten when it is opened again.
+ */
+public class SpillBuffer {
+
+    private File file;
+    private FileChannel channel;
+    private long readPosition;
+    private long writePosition;
+    private int count;
+
+
+    /**
+     * Constructor of the class. The file is created when the first event is appended.
+     * @param file file holding the events
+     */
+    public SpillBuffer(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Adds an event at the end of the file.
+     * @param event envelope of the event
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void append(EventEnvelope event) throws IOException {
+        if (channel == null) {
+            File directory = file.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs())
+                throw new IOException("Cannot create spill directory " + directory);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            file.deleteOnExit();
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new WireCodec.Writer(new DataOutputStream(bytes)).writeEnvelope(event);
+        ByteBuffer buffer = ByteBuffer.allocate(4 + bytes.size());
+        buffer.putInt(bytes.size()).put(bytes.toByteArray());
+        buffer.flip();
+        while (buffer.hasRemaining())
+            writePosition += channel.write(buffer, writePosition);
+        count++;
+    }
+
+    /**
+     * Removes the oldest events from the file. An event is only removed once it was read in full, so after
+     * an error the file still starts at the event that could not be read.
+     * @param maxEvents most events to remove
+     * @return List of events, oldest first, the ones read before an error if there are any
+     * @throws IOException if the file can't be read and no event was read
+     */
+    public synchronized ArrayList<EventEnvelope> take(int maxEvents) throws IOException {
+        ArrayList<EventEnvelope> events = new ArrayList<>();
+        ByteBuffer length = ByteBuffer.allocate(4);
+        while (count > 0 && events.size() < maxEvents) {
+            try {
+                length.clear();
+                readFully(length, readPosition);
+                int size = length.getInt(0);
+                if (size < 0 || readPosition + 4 + size > writePosition)
+                    throw new IOException("Spill file " + file + " has a damaged event at " + readPosition + ".");
+                ByteBuffer record = ByteBuffer.allocate(size);
+                readFully(record, readPosition + 4);
+                events.add(new WireCodec.Reader(new DataInputStream(
+                        new ByteArrayInputStream(record.array()))).readEnvelope());
+                readPosition += 4 + record.capacity();
+                count--;
+            } catch (IOException e) {
+                if (events.isEmpty())
+                    throw e;
+                return events; //the error is seen again by the next call
+            }
+        }
+        if (count == 0 && channel != null) {
+            // start over so the file does not keep growing
+            channel.truncate(0);
+            readPosition = 0;
+            writePosition = 0;
+        }
+        return events;
+    }
+
+    /**
+     * Number of events in the file.
+     * @return Number of events
+     */
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Closes and deletes the file.
+     */
+    public synchronized void close() {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException e) { } //the file is deleted either way
+            channel = null;
+        }
+        file.delete();
+        count = 0;
+        readPosition = 0;
+        writePosition = 0;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0)
+                throw new IOException("Spill file " + file + " ends too early.");
+        }
+    }
+}
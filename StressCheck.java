@@ -0,0 +1,170 @@
+package edu.rit.cs;
+import java.util.Arrays;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Publishes to as many topics as it has threads, each thread to its own topic, then connects agents from the
+ * same threads. It does so with 1, 2, 4 and more threads, up to twice the cores of the machine, and prints the
+ * publishes and connects per second of every run next to those of one thread. It also checks that no ID was
+ * handed out twice and that every subscriber received every event of its topic. Scaling only shows on a
+ * machine with several cores. Run it with
+ * java -cp target/project2-1.0-SNAPSHOT.jar edu.rit.cs.StressCheck [events] [connects]
+ * It exits with 1 on a failure.
+ */
+public class StressCheck {
+
+    public static final int DEFAULT_EVENTS = 400000;
+    public static final int DEFAULT_CONNECTS = 50000;
+    private static final int SUBSCRIBERS_PER_TOPIC = 4;
+    private static final long DELIVERY_TIMEOUT_MILLIS = 60000;
+
+    private static int failures = 0;
+
+    /**
+     * A subscriber in the same JVM that only counts what it receives.
+     */
+    private static class Counter implements Subscriber {
+        private final LongAdder received;
+
+        Counter(LongAdder received) {
+            this.received = received;
+        }
+
+        public void subscribe(Topic topic) {
+        }
+
+        public void unsubscribe(Topic topic) {
+        }
+
+        public void unsubscribe() {
+        }
+
+        public void notify(EventEnvelope event) {
+            received.increment();
+        }
+
+        public void notifyBatch(EventBatch events) {
+            received.add(events.size());
+        }
+
+        public void notifyAd(Topic topic) {
+        }
+    }
+
+    /**
+     * The work of one thread of a run.
+     */
+    private interface Work {
+        void run(int thread) throws Exception;
+    }
+
+    /**
+     * Runs the stress test with more and more threads.
+     * @param args number of events and of connects of every run, optional
+     * @throws Exception if the server can't be started
+     */
+    public static void main(String[] args) throws Exception {
+        int events = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_EVENTS;
+        int connects = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_CONNECTS;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println(cores + " cores, " + events + " publishes and " + connects + " connects a run");
+        //a first run compiles the hot paths, so the run with one thread is not measured on the interpreter
+        run(1, events, connects);
+        System.out.println("threads  publishes/s  speedup  connects/s  speedup");
+        double publishBase = 0;
+        double connectBase = 0;
+        for (int threads = 1; threads <= Math.max(8, 2 * cores); threads *= 2) {
+            double[] rates = run(threads, events / threads, connects / threads);
+            if (threads == 1) {
+                publishBase = rates[0];
+                connectBase = rates[1];
+            }
+            System.out.printf("%7d  %11.0f  %6.2fx  %10.0f  %6.2fx%n", threads, rates[0], rates[0] / publishBase,
+                    rates[1], rates[1] / connectBase);
+        }
+        System.out.println(failures == 0 ? "All checks passed." : failures + " checks failed.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void check(boolean passed, String name) {
+        if (!passed) {
+            failures++;
+            System.out.println("FAIL " + name);
+        }
+    }
+
+    /**
+     * Runs once with a number of threads on a new server.
+     * @return publishes per second and connects per second
+     */
+    private static double[] run(final int threads, final int eventsPerThread, final int connectsPerThread)
+            throws Exception {
+        final EventManager manager = new EventManager();
+        manager.startService();
+        final Topic[] topics = new Topic[threads];
+        LongAdder received = new LongAdder();
+        for (int thread = 0; thread < threads; thread++) {
+            topics[thread] = new Topic("stress-" + thread, "stress");
+            manager.addTopic(topics[thread]);
+            for (int sub = 0; sub < SUBSCRIBERS_PER_TOPIC; sub++)
+                manager.addSubscriber(manager.connect(new Counter(received)), topics[thread]);
+        }
+
+        final int[][] eventIDs = new int[threads][eventsPerThread];
+        long publishNanos = timed(threads, thread -> {
+            for (int index = 0; index < eventsPerThread; index++)
+                eventIDs[thread][index] = manager.publish(new Event(topics[thread], "event " + index, "content", null));
+        });
+        final int[][] clientIDs = new int[threads][connectsPerThread];
+        long connectNanos = timed(threads, thread -> {
+            for (int index = 0; index < connectsPerThread; index++)
+                clientIDs[thread][index] = manager.connect(null);
+        });
+
+        check(unique(eventIDs), threads + " threads: event IDs handed out once");
+        check(unique(clientIDs), threads + " threads: client IDs handed out once");
+        long expected = (long) threads * eventsPerThread * SUBSCRIBERS_PER_TOPIC;
+        long deadline = System.currentTimeMillis() + DELIVERY_TIMEOUT_MILLIS;
+        while (received.sum() < expected && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        check(received.sum() == expected, threads + " threads: " + received.sum() + " of " + expected + " delivered");
+        return new double[] {threads * eventsPerThread * 1e9 / publishNanos,
+                threads * connectsPerThread * 1e9 / connectNanos};
+    }
+
+    // starts every thread at once and returns the time until the last one is done
+    private static long timed(int threads, final Work work) throws Exception {
+        final long[] started = new long[1];
+        final CyclicBarrier start = new CyclicBarrier(threads, () -> started[0] = System.nanoTime());
+        final Exception[] failed = new Exception[1];
+        Thread[] workers = new Thread[threads];
+        for (int thread = 0; thread < threads; thread++) {
+            final int number = thread;
+            workers[thread] = new Thread(() -> {
+                try {
+                    start.await();
+                    work.run(number);
+                } catch (Exception e) {
+                    failed[0] = e;
+                }
+            }, "stress-" + thread);
+            workers[thread].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        if (failed[0] != null)
+            throw failed[0];
+        return System.nanoTime() - started[0];
+    }
+
+    private static boolean unique(int[][] ids) {
+        int[] all = Arrays.stream(ids).flatMapToInt(Arrays::stream).toArray();
+        Arrays.sort(all);
+        for (int index = 1; index < all.length; index++) {
+            if (all[index] == all[index - 1])
+                return false;
+        }
+        return true;
+    }
+}
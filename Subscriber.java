@@ -39,7 +39,15 @@ public interface Subscriber extends java.rmi.Remote {
      * @param e Details about the event to be published
      * @throws RemoteException
      */
-    public void notify(Event e) throws RemoteException;
+    public void notify(EventEnvelope e) throws RemoteException;
+
+    /**
+     * Notify the subscribers about several events in one call.
+     *
+     * @param events Details about the events in the order they were published
+     * @throws RemoteException
+     */
+    public void notifyBatch(EventBatch events) throws RemoteException;
 
     /**
      * Notify all agents about a new Topic.
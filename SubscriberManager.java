@@ -1,6 +1,4 @@
 package edu.rit.cs;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
 
 /**
  * A class that handles the subscribers of the Topics
@@ -8,7 +6,9 @@ import java.util.LinkedHashSet;
 public class SubscriberManager {
 
     private Topic topic;
-    private LinkedHashSet<Integer> topicSubs;
+    private IntSet topicSubs;
+    // Offsets and retained events of the topic
+    private TopicLog log;
 
 
     /**
@@ -16,8 +16,18 @@ public class SubscriberManager {
      * @param topic Topic object
      */
     public SubscriberManager(Topic topic){
+        this(topic, TopicLog.DEFAULT_RETENTION);
+    }
+
+    /**
+     * Constructor of the class that keeps a number of delivered events of the topic for replays.
+     * @param topic Topic object
+     * @param retention number of delivered events kept
+     */
+    public SubscriberManager(Topic topic, int retention){
         this.topic = topic;
-        topicSubs = new LinkedHashSet<>();
+        topicSubs = new IntSet();
+        log = new TopicLog(retention);
     }
 
     /**
@@ -28,12 +38,20 @@ public class SubscriberManager {
         return topic;
     }
 
+    /**
+     * Return the log numbering the events of the topic
+     * @return log of the topic
+     */
+    public TopicLog getLog() {
+        return log;
+    }
+
     /**
      * Adding new subscriber to the topic
      * @param subscriberID of the agent
      * @return true if successful, false if not
      */
-    public synchronized boolean addSubscriber(Integer subscriberID){
+    public synchronized boolean addSubscriber(int subscriberID){
         return topicSubs.add(subscriberID);
     }
 
@@ -42,7 +60,7 @@ public class SubscriberManager {
      * @param subscriberID of the agent
      * @return true if successful, false if not
      */
-    public synchronized boolean removeSubscriber(Integer subscriberID){
+    public synchronized boolean removeSubscriber(int subscriberID){
         return topicSubs.remove(subscriberID);
     }
 
@@ -55,20 +73,11 @@ public class SubscriberManager {
     }
 
     /**
-     * Returning ID list of the subscribers
-     * @return List of ID numbers
-     */
-    public synchronized LinkedHashSet<Integer> getSubscribers(){
-        return topicSubs;
-    }
-
-    /**
-     * Use the iterator to remove during iteration
-     *
-     * @return iterator to iterate
+     * Returning a copy of the ID list of the subscribers
+     * @return Array of ID numbers
      */
-    public synchronized Iterator<Integer> iterator() {
-        return topicSubs.iterator();
+    public synchronized int[] getSubscribers(){
+        return topicSubs.toArray();
     }
 
 
@@ -96,10 +105,9 @@ public class SubscriberManager {
      * @return
      */
     public synchronized String toString() {
-        String result = topic.toString() + "\nSubscriber List: ";
-        for(int subID: topicSubs){
-            result += subID + " ";
-        }
+        String result = topic.toString() + "\nOffsets: " + log.getFirstOffset() + " to " + log.getNextOffset()
+                + "\nSubscriber List: ";
+        result += topicSubs;
 
         result += "\n";
 
@@ -112,9 +120,7 @@ public class SubscriberManager {
      */
     public synchronized String printSubscribers(){
         String result = "\n\tSubscriber List: ";
-        for(int subID: topicSubs){
-            result += subID + " ";
-        }
+        result += topicSubs;
 
         result += "\n";
 
@@ -0,0 +1,302 @@
+package edu.rit.cs;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A class that holds the events and topic advertisements waiting to be delivered to one subscriber.
+ * Only one delivery worker drains a queue at a time so events reach the subscriber in order.
+ * After a failed delivery the queue backs off, waiting longer after every failure in a row.
+ * A subscriber in pull mode fetches from the head of its queue itself; the events it was handed stay at the
+ * head, in flight, until its next fetch acknowledges them.
+ * A subscriber that falls too far behind can have its newer events moved to a spill file, which is read back
+ * into the queue as it catches up, or its oldest events dropped.
+ */
+public class SubscriberQueue {
+
+    private final int subscriberID;
+    private ConcurrentLinkedQueue<EventEnvelope> outbound;
+    // Kept separately because counting a ConcurrentLinkedQueue walks all of it
+    private AtomicInteger count;
+    private ConcurrentLinkedQueue<Topic> pendingAds;
+    // Set while a worker owns the queue
+    private AtomicBoolean scheduled;
+    // Failed deliveries in a row and the time before which the queue must not be retried
+    private volatile int failures;
+    private volatile long backoffUntil;
+    // Events at the head handed to a pulling subscriber and not acknowledged yet
+    private volatile int inFlight;
+    // Newer events waiting on disk once the queue is full, NULL until it first fills up
+    private volatile SpillBuffer spill;
+    // Events dropped because the subscriber could not keep up
+    private AtomicLong dropped;
+    // Time of the last delivery, to tell how far behind the subscriber is
+    private volatile long lastDelivery;
+
+
+    /**
+     * Constructor of the class. It creates an empty queue for the subscriber.
+     * @param subscriberID unique ID of the agent
+     */
+    public SubscriberQueue(int subscriberID) {
+        this.subscriberID = subscriberID;
+        outbound = new ConcurrentLinkedQueue<>();
+        count = new AtomicInteger();
+        pendingAds = new ConcurrentLinkedQueue<>();
+        scheduled = new AtomicBoolean(false);
+        dropped = new AtomicLong();
+        lastDelivery = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the ID of the subscriber this queue delivers to.
+     * @return ID number
+     */
+    public int getSubscriberID() {
+        return subscriberID;
+    }
+
+    /**
+     * Adding an event to the end of the queue.
+     * @param event details of the event
+     */
+    public void offer(EventEnvelope event) {
+        outbound.offer(event);
+        count.incrementAndGet();
+    }
+
+    /**
+     * Adding an event to the end of the queue, or to the spill file if the queue holds limit events or the
+     * spill file is not empty, so the events stay in order.
+     * @param event details of the event
+     * @param limit most events held in memory
+     * @param directory directory of the spill file
+     */
+    public synchronized void offerOrSpill(EventEnvelope event, int limit, File directory) {
+        if (count.get() >= limit || (spill != null && spill.size() > 0)) {
+            if (spill == null)
+                spill = new SpillBuffer(new File(directory, "subscriber-" + subscriberID + ".spill"));
+            try {
+                spill.append(event);
+                return;
+            } catch (IOException e) {
+                //kept in memory rather than lost, even if it gets ahead of the spilled events
+                System.err.println("Could not spill an event of " + subscriberID + ": " + e.getMessage());
+            }
+        }
+        offer(event);
+    }
+
+    /**
+     * Moves events from the spill file back to the queue until it holds limit events. Only the worker owning
+     * the queue calls it. If the file can't be read it is kept as it is, to be read again by the next call.
+     * @param limit most events held in memory
+     * @return number of events moved
+     * @throws IOException if no event could be read from the spill file
+     */
+    public synchronized int refill(int limit) throws IOException {
+        if (spill == null || spill.size() == 0 || count.get() >= limit)
+            return 0;
+        ArrayList<EventEnvelope> events = spill.take(limit - count.get());
+        for (EventEnvelope event : events)
+            offer(event);
+        return events.size();
+    }
+
+    /**
+     * Number of events waiting in the spill file.
+     * @return Number of events
+     */
+    public int spilled() {
+        SpillBuffer buffer = spill;
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    /**
+     * Removes the oldest events that are not in flight. Only the worker owning the queue calls it.
+     * @param maxEvents most events to remove
+     * @return the removed events
+     */
+    public ArrayList<EventEnvelope> dropOldest(int maxEvents) {
+        ArrayList<EventEnvelope> removed = new ArrayList<>();
+        Iterator<EventEnvelope> it = outbound.iterator();
+        for (int index = 0; index < inFlight && it.hasNext(); index++)
+            it.next();
+        while (it.hasNext() && removed.size() < maxEvents) {
+            removed.add(it.next());
+            it.remove();
+            count.decrementAndGet();
+        }
+        dropped.addAndGet(removed.size());
+        return removed;
+    }
+
+    /**
+     * Number of events dropped because the subscriber could not keep up.
+     * @return Number of events
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Records that events were delivered just now.
+     */
+    public void delivered() {
+        lastDelivery = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the time of the last delivery, or of the creation of the queue.
+     * @return time in milliseconds
+     */
+    public long getLastDelivery() {
+        return lastDelivery;
+    }
+
+    /**
+     * Returns the oldest event without removing it.
+     * @return event or NULL if the queue is empty
+     */
+    public EventEnvelope peek() {
+        return outbound.peek();
+    }
+
+    /**
+     * Removes the oldest event once it has been delivered.
+     * @return event or NULL if the queue is empty
+     */
+    public EventEnvelope poll() {
+        EventEnvelope event = outbound.poll();
+        if (event != null)
+            count.decrementAndGet();
+        return event;
+    }
+
+    /**
+     * Iterator over the waiting events, oldest first, used to build a batch without removing it.
+     * @return iterator to iterate
+     */
+    public Iterator<EventEnvelope> iterator() {
+        return outbound.iterator();
+    }
+
+    /**
+     * Adding a topic advertisement, sent before any waiting event.
+     * @param topic details of the topic
+     */
+    public void offerAd(Topic topic) {
+        pendingAds.offer(topic);
+    }
+
+    /**
+     * Returns the oldest advertisement without removing it.
+     * @return topic or NULL if there is none
+     */
+    public Topic peekAd() {
+        return pendingAds.peek();
+    }
+
+    /**
+     * Removes the oldest advertisement once it has been delivered.
+     * @return topic or NULL if there is none
+     */
+    public Topic pollAd() {
+        return pendingAds.poll();
+    }
+
+    /**
+     * Checks if there is nothing left to deliver.
+     * @return true if empty
+     */
+    public boolean isEmpty() {
+        return outbound.isEmpty() && pendingAds.isEmpty() && spilled() == 0;
+    }
+
+    /**
+     * Number of events left to deliver, in memory and spilled.
+     * @return Number of events
+     */
+    public int size() {
+        return count.get() + spilled();
+    }
+
+    /**
+     * Number of events left to deliver that are held in memory.
+     * @return Number of events
+     */
+    public int memorySize() {
+        return count.get();
+    }
+
+    /**
+     * Claims the queue for a worker.
+     * @return true if the caller now owns the queue, false if another worker already does
+     */
+    public boolean claim() {
+        return scheduled.compareAndSet(false, true);
+    }
+
+    /**
+     * Gives the queue back after a worker is done with it.
+     */
+    public void release() {
+        scheduled.set(false);
+    }
+
+    /**
+     * Number of events at the head handed out by a fetch and not acknowledged yet.
+     * @return Number of events
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Sets the number of events at the head handed out by a fetch.
+     * @param inFlight Number of events
+     */
+    public void setInFlight(int inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * Records a failed delivery and returns how many failed in a row.
+     * @param until time in milliseconds before which the queue must not be retried
+     * @return number of failures in a row
+     */
+    public int failed(long until) {
+        backoffUntil = until;
+        return ++failures;
+    }
+
+    /**
+     * Number of failed deliveries in a row.
+     * @return Number of failures
+     */
+    public int getFailures() {
+        return failures;
+    }
+
+    /**
+     * Clears the back off after a delivery worked or the subscriber came back.
+     */
+    public void resetBackoff() {
+        failures = 0;
+        backoffUntil = 0;
+    }
+
+    /**
+     * Checks if the queue is waiting after a failure.
+     * @param now current time in milliseconds
+     * @return true if it must not be retried yet
+     */
+    public boolean backingOff(long now) {
+        return now < backoffUntil;
+    }
+}
@@ -0,0 +1,120 @@
+package edu.rit.cs;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * A hashed timing wheel that runs tasks after a delay.
+ * Time is cut into ticks and every tick owns one bucket of the wheel, so each tick only looks at the tasks
+ * that fall into its bucket instead of every waiting task. A task further away than one turn of the wheel
+ * waits in its bucket for the remaining number of turns.
+ * Due tasks are handed to an executor so a slow task never holds up the wheel.
+ */
+public class TimingWheel {
+
+    /**
+     * A task waiting in the wheel.
+     */
+    private static class Timeout {
+        final Runnable task;
+        final long deadline;
+        long turns;
+
+        Timeout(Runnable task, long deadline) {
+            this.task = task;
+            this.deadline = deadline;
+        }
+    }
+
+    private final long tickMillis;
+    private final ArrayList<ArrayList<Timeout>> buckets;
+    private final int mask;
+    private final Executor executor;
+    // Tasks scheduled since the last tick, moved into the buckets by the wheel thread
+    private final ConcurrentLinkedQueue<Timeout> incoming;
+    private long startTime;
+    private long tick;
+    private Thread thread;
+
+
+    /**
+     * Constructor of the class.
+     * @param tickMillis length of one tick, the precision of the delays
+     * @param wheelSize number of buckets, rounded up to a power of two
+     * @param executor runs the tasks once they are due
+     */
+    public TimingWheel(long tickMillis, int wheelSize, Executor executor) {
+        this.tickMillis = tickMillis;
+        this.executor = executor;
+        int size = 1;
+        while (size < wheelSize)
+            size <<= 1;
+        mask = size - 1;
+        buckets = new ArrayList<>(size);
+        for (int index = 0; index < size; index++)
+            buckets.add(new ArrayList<Timeout>());
+        incoming = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Starts the thread that moves the wheel. Calling it again does nothing.
+     */
+    public synchronized void start() {
+        if (thread != null)
+            return;
+        startTime = System.currentTimeMillis();
+        thread = new Thread(new Runnable() {
+            public void run() {
+                while (true) {
+                    long wake = startTime + (tick + 1) * tickMillis;
+                    long sleep = wake - System.currentTimeMillis();
+                    if (sleep > 0) {
+                        try {
+                            Thread.sleep(sleep);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    transferIncoming();
+                    expire(buckets.get((int) (tick & mask)));
+                    tick++;
+                }
+            }
+        }, "timing-wheel");
+        //Daemon allows this thread not to block program from exiting
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs a task once the delay has passed.
+     * @param task work to run on the executor
+     * @param delayMillis time to wait
+     */
+    public void schedule(Runnable task, long delayMillis) {
+        incoming.add(new Timeout(task, System.currentTimeMillis() + Math.max(0, delayMillis)));
+    }
+
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            long due = Math.max(tick, (timeout.deadline - startTime) / tickMillis);
+            timeout.turns = (due - tick) / buckets.size();
+            buckets.get((int) (due & mask)).add(timeout);
+        }
+    }
+
+    private void expire(ArrayList<Timeout> bucket) {
+        Iterator<Timeout> it = bucket.iterator();
+        while (it.hasNext()) {
+            Timeout timeout = it.next();
+            if (timeout.turns > 0) {
+                timeout.turns--;
+                continue;
+            }
+            it.remove();
+            executor.execute(timeout.task);
+        }
+    }
+}
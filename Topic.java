@@ -1,19 +1,18 @@
 package edu.rit.cs;
 
-import java.io.Serializable;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Collection;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 /**
  * A Class to handle the Topic Details.
  */
-public class Topic implements Serializable {
+public class Topic implements Externalizable {
     private static final long serialVersionUID = 1L;
     private String[] keywords;
-    private final String topicName;
+    private String topicName;
     private int topicID;
-    private LinkedHashSet<Integer> pendingAdvertise;
 
     /**
      * Constructor of the class
@@ -23,7 +22,47 @@ public class Topic implements Serializable {
     public Topic(String topicName, String keywords){
         this.topicName = topicName;
         this.keywords = keywords.split(",");
-        this.pendingAdvertise = new LinkedHashSet<>();
+    }
+
+    /**
+     * Constructor of the class for keywords that are already split.
+     * @param topicName Name of the topic
+     * @param keywords words associated with the topic
+     */
+    public Topic(String topicName, String[] keywords){
+        this.topicName = topicName;
+        this.keywords = keywords;
+    }
+
+    /**
+     * Constructor used when reading a topic back from its binary form.
+     */
+    public Topic(){
+        this.keywords = new String[0];
+    }
+
+    /**
+     * Writes the topic in the compact format of WireCodec.
+     * @param out stream to write to
+     * @throws IOException
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writer.writeVarInt(topicID);
+        writer.writeString(topicName);
+        writer.writeKeywords(keywords);
+    }
+
+    /**
+     * Reads the topic written by writeExternal.
+     * @param in stream to read from
+     * @throws IOException
+     */
+    public void readExternal(ObjectInput in) throws IOException {
+        WireCodec.Reader reader = new WireCodec.Reader(in);
+        topicID = reader.readVarInt();
+        topicName = reader.readString();
+        keywords = reader.readKeywords();
     }
 
     /**
@@ -59,13 +98,6 @@ public class Topic implements Serializable {
         return this.topicName.equals(((Topic)obj).topicName);
     }
 
-    /**
-     * Iterator to allow for removal of Agents as they are notified.
-     */
-    public synchronized Iterator<Integer> iterator() {
-        return pendingAdvertise.iterator();
-    }
-
     /**
      * Used by SubscriberManager's hash to collide topics with same name.
      */
@@ -73,27 +105,6 @@ public class Topic implements Serializable {
         return topicName.hashCode();
     }
 
-
-    /**
-     * Adding agent IDs to populate the list that needs to be notified
-     *
-     * @param ID that needs to be added to generate the notification list.
-     * @return true if list was successfully added else false
-     */
-    public synchronized boolean addAgents(Integer ID) {
-        if (ID != null)
-            return pendingAdvertise.add(ID);
-        return false;
-    }
-
-    /**
-     * Agents left to notify of the topic advertisement.
-     * @return
-     */
-    public synchronized int agentsLeft() {
-        return pendingAdvertise.size();
-    }
-
     /**
      * Setting a unique ID for the topic
      * @param idNum unique ID number
@@ -0,0 +1,125 @@
+package edu.rit.cs;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The agent's copy of the topic catalog of its server, indexed by name and by ID. Advertisements received by the
+ * agent are added as they arrive, so a topic found here is answered without asking the server. A name that is
+ * missing is looked up on the server by itself. Only when the whole catalog is listed, or an ID is missing, the
+ * agent asks the server for the topics added since the version of its copy, which is nothing when it is up to date.
+ */
+public class TopicCache {
+
+    public static final int PAGE_TOPICS = 500;
+
+    private final ConcurrentHashMap<Integer, Topic> byID = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Topic> byName = new ConcurrentHashMap<>();
+    // Version of the server's catalog the copy is up to date with, -1 before the first fetch
+    private volatile long version = -1;
+    // Number of pages of topics fetched from the server
+    private volatile long fetches;
+
+
+    /**
+     * Adds a topic that was advertised or created, without changing the version of the copy.
+     * @param topic details of the topic
+     */
+    public void add(Topic topic) {
+        byID.put(topic.getTopicID(), topic);
+        byName.put(TopicRegistry.normalize(topic.getTopicName()), topic);
+    }
+
+    /**
+     * Finds a topic by name, ignoring case. The server is only asked for that name when it is not in the copy.
+     * @param server server whose catalog is copied
+     * @param name Name of the topic
+     * @return topic object if found or NULL
+     * @throws RemoteException
+     */
+    public Topic get(EventInterface server, String name) throws RemoteException {
+        Topic topic = byName.get(TopicRegistry.normalize(name));
+        if (topic == null) {
+            topic = server.findTopic(name, true);
+            if (topic != null)
+                add(topic);
+        }
+        return topic;
+    }
+
+    /**
+     * Finds a topic by its unique ID. The server is only asked when the topic is not in the copy.
+     * @param server server whose catalog is copied
+     * @param topicID unique ID of the topic
+     * @return topic object if found or NULL
+     * @throws RemoteException
+     */
+    public Topic get(EventInterface server, int topicID) throws RemoteException {
+        Topic topic = byID.get(topicID);
+        if (topic == null && refresh(server))
+            topic = byID.get(topicID);
+        return topic;
+    }
+
+    /**
+     * Returns every topic of the catalog by ID, after checking the copy is up to date.
+     * @param server server whose catalog is copied
+     * @return List of topics
+     * @throws RemoteException
+     */
+    public ArrayList<Topic> topics(EventInterface server) throws RemoteException {
+        refresh(server);
+        ArrayList<Topic> topics = new ArrayList<>(byID.values());
+        topics.sort(Comparator.comparingInt(Topic::getTopicID));
+        return topics;
+    }
+
+    /**
+     * Fetches the topics added to the catalog since the version of the copy, a page at a time.
+     * @param server server whose catalog is copied
+     * @return true if any topic was fetched
+     * @throws RemoteException
+     */
+    public synchronized boolean refresh(EventInterface server) throws RemoteException {
+        long since = Math.max(0, version);
+        boolean changed = false;
+        TopicPage page;
+        do {
+            page = server.getTopicPage(since, PAGE_TOPICS);
+            if (page.isReset()) {
+                byID.clear();
+                byName.clear();
+            }
+            for (Topic topic : page.getTopics())
+                add(topic);
+            if (!page.getTopics().isEmpty()) {
+                fetches++;
+                changed = true;
+            }
+            since = page.getVersion();
+        } while (page.hasMore());
+        version = since;
+        return changed;
+    }
+
+    /**
+     * Forgets the version of the copy, so the next check reads the catalog from the start, as after moving
+     * to another server whose versions count the topics in another order.
+     */
+    public void invalidate() {
+        version = -1;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getFetches() {
+        return fetches;
+    }
+
+    public int size() {
+        return byID.size();
+    }
+}
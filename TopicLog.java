@@ -0,0 +1,232 @@
+package edu.rit.cs;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A class that numbers the events of one topic and keeps the latest of them, so that an agent can be sent
+ * the events of the topic again from any offset that is still retained.
+ * Offsets start at 0 and grow by one for every event published on the topic. An event is retained until
+ * all of its recipients received it and at least retention newer events were published. Beyond the
+ * retention an event some recipient still waits for is kept without its content, so a subscriber that
+ * fell far behind costs a few bytes per event here, and nothing can be replayed from there.
+ * Publishers hold the lock of the log from taking an offset until the event is appended, and events are
+ * queued for delivery in offset order, so an agent never receives the events of a topic out of order.
+ * Since offsets have no gaps the retained events sit in a ring indexed by offset, which the delivery workers
+ * read without taking the lock.
+ */
+public class TopicLog {
+
+    public static final int DEFAULT_RETENTION = 1000;
+
+    /**
+     * One retained event with the number of recipients that have not received it yet.
+     */
+    private static class Entry {
+        final long offset;
+        // NULL once it is beyond the retention
+        volatile EventEnvelope event;
+        final AtomicInteger remaining;
+        // Log sequence the event waits for before it is queued, and its recipients until then
+        final long sequence;
+        int[] recipients;
+
+        Entry(EventEnvelope event, int[] recipients, long sequence) {
+            this.offset = event.getOffset();
+            this.event = event;
+            this.remaining = new AtomicInteger(recipients.length);
+            this.sequence = sequence;
+            this.recipients = recipients;
+        }
+    }
+
+    private final int retention;
+    // Offset the next event gets, read without the lock by the event log checkpoint
+    private volatile long nextOffset;
+    // Offset of the oldest event that can be replayed
+    private volatile long firstOffset;
+    // Offset of the oldest event in the ring, not before the oldest one a recipient still waits for
+    private long oldestOffset;
+    // Retained events, the one at offset o in slot o modulo the length, which is a power of two
+    private volatile Entry[] entries;
+    // Appended events not queued for delivery yet, in offset order, guarded by this
+    private ArrayDeque<Entry> unsent;
+
+
+    /**
+     * Constructor of the class. It creates an empty log starting at offset 0.
+     * @param retention number of delivered events kept for replays
+     */
+    public TopicLog(int retention) {
+        this.retention = Math.max(0, retention);
+        entries = new Entry[16];
+        unsent = new ArrayDeque<>();
+    }
+
+    /**
+     * Returns the offset the next event of the topic gets. Hold the lock of the log until it is appended.
+     * @return offset
+     */
+    public long getNextOffset() {
+        return nextOffset;
+    }
+
+    /**
+     * Returns the oldest offset still retained.
+     * @return offset, equal to the next offset when nothing is retained
+     */
+    public long getFirstOffset() {
+        return firstOffset;
+    }
+
+    /**
+     * Appends an event numbered with getNextOffset. It is queued by the next call to release.
+     * @param event envelope of the event
+     * @param recipients IDs of the agents to notify
+     * @param sequence event log sequence that must be on disk before the event is queued, 0 without a log
+     */
+    public synchronized void append(EventEnvelope event, int[] recipients, long sequence) {
+        Entry entry = new Entry(event, recipients, sequence);
+        put(entry);
+        unsent.add(entry);
+        trim();
+    }
+
+    /**
+     * Queues the appended events whose log sequence is on disk, oldest first, stopping at the first one that
+     * is not. Whichever publisher calls it first queues the events of the others too.
+     * @param durable highest event log sequence known to be on disk
+     * @param engine delivery engine of the topic
+     */
+    public synchronized void release(long durable, DeliveryEngine engine) {
+        Entry entry;
+        while ((entry = unsent.peek()) != null && entry.sequence <= durable) {
+            unsent.poll();
+            for (int subID : entry.recipients)
+                engine.enqueue(subID, entry.event);
+            entry.recipients = null;
+        }
+    }
+
+    /**
+     * Puts back an event found in the event log while the server recovers.
+     * @param event envelope of the event
+     * @param pending number of recipients that have not received it
+     */
+    public synchronized void restore(EventEnvelope event, int pending) {
+        Entry entry = new Entry(event, new int[0], 0);
+        entry.remaining.set(pending);
+        entry.recipients = null; //queued by the caller
+        if (event.getOffset() >= nextOffset)
+            put(entry);
+        trim();
+    }
+
+    /**
+     * Makes sure the next event gets at least an offset, found in a checkpoint of the event log.
+     * @param offset offset of the next event
+     */
+    public synchronized void advanceTo(long offset) {
+        if (offset <= nextOffset)
+            return;
+        if (oldestOffset == nextOffset) {
+            oldestOffset = offset;
+            firstOffset = offset;
+        } else {
+            grow(offset - oldestOffset);
+        }
+        nextOffset = offset;
+    }
+
+    /**
+     * Marks the event at an offset as received by one more of its recipients.
+     * @param offset offset of the event
+     * @return true if every recipient has now received it
+     */
+    public boolean delivered(long offset) {
+        Entry[] ring = entries;
+        Entry entry = ring[(int) offset & (ring.length - 1)];
+        if (entry == null || entry.offset != offset)
+            entry = get(offset); //the ring grew or the slot is not visible yet
+        return entry != null && entry.remaining.decrementAndGet() == 0;
+    }
+
+    /**
+     * Returns the retained events from an offset on, oldest first, up to the first one not queued yet.
+     * @param offset offset of the first event, moved up to the oldest retained one
+     * @param maxEvents most events to return
+     * @return List of events
+     */
+    public synchronized ArrayList<EventEnvelope> read(long offset, int maxEvents) {
+        ArrayList<EventEnvelope> events = new ArrayList<>();
+        for (long index = Math.max(offset, firstOffset); index < nextOffset && events.size() < maxEvents; index++) {
+            Entry entry = entries[(int) index & (entries.length - 1)];
+            if (entry == null || entry.event == null)
+                continue;
+            if (entry.recipients != null)
+                break;
+            events.add(entry.event);
+        }
+        return events;
+    }
+
+    private synchronized Entry get(long offset) {
+        if (offset < oldestOffset || offset >= nextOffset)
+            return null;
+        return entries[(int) offset & (entries.length - 1)];
+    }
+
+    /**
+     * Puts an event after the newest one, growing the ring if it is full.
+     * @param entry the event
+     */
+    private void put(Entry entry) {
+        long offset = entry.offset;
+        if (oldestOffset == nextOffset) {
+            oldestOffset = offset;
+            firstOffset = offset;
+        }
+        grow(offset + 1 - oldestOffset);
+        entries[(int) offset & (entries.length - 1)] = entry;
+        nextOffset = offset + 1;
+    }
+
+    /**
+     * Makes the ring long enough for a number of offsets, copying the retained events over.
+     * @param span number of offsets from the oldest retained one
+     */
+    private void grow(long span) {
+        if (span <= entries.length)
+            return;
+        int length = entries.length;
+        while (length < span)
+            length <<= 1;
+        Entry[] ring = new Entry[length];
+        for (long offset = oldestOffset; offset < nextOffset; offset++)
+            ring[(int) offset & (length - 1)] = entries[(int) offset & (entries.length - 1)];
+        entries = ring;
+    }
+
+    /**
+     * Drops the content of the events beyond the retention, and the events themselves once no recipient
+     * waits for them.
+     */
+    private void trim() {
+        int mask = entries.length - 1;
+        while (nextOffset - firstOffset > retention) {
+            Entry entry = entries[(int) firstOffset & mask];
+            if (entry != null && entry.recipients != null)
+                break; //not queued yet
+            if (entry != null)
+                entry.event = null;
+            firstOffset++;
+        }
+        while (oldestOffset < firstOffset) {
+            int slot = (int) oldestOffset & mask;
+            if (entries[slot] != null && entries[slot].remaining.get() > 0)
+                break;
+            entries[slot] = null;
+            oldestOffset++;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package edu.rit.cs;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A class that carries part of the topic catalog of a server: the topics added after a version of the catalog,
+ * at most a page of them. Listing the whole catalog is reading the changes since version 0 page by page.
+ * The topics are encoded once, when the server first builds the page, and the same bytes are written every
+ * time the page is sent again.
+ */
+public class TopicPage implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    // Version of the catalog once the topics of the page are applied
+    private long version;
+    // Version of the catalog when the page was sent
+    private long latest;
+    // Set when the version asked for is not one of this catalog, the page then starts from version 0
+    private boolean reset;
+    private List<Topic> topics;
+    // WireCodec form of the topics, shared by the copies of the page
+    private transient byte[] encoded;
+
+
+    /**
+     * Constructor of the class. It encodes the topics.
+     * @param version version of the catalog once the topics are applied
+     * @param latest version of the catalog when the page is sent
+     * @param reset true if the page starts from version 0 instead of the version asked for
+     * @param topics topics in the order they were added, not changed afterwards
+     */
+    public TopicPage(long version, long latest, boolean reset, List<Topic> topics) {
+        this(version, latest, reset, topics, encode(topics));
+    }
+
+    private TopicPage(long version, long latest, boolean reset, List<Topic> topics, byte[] encoded) {
+        this.version = version;
+        this.latest = latest;
+        this.reset = reset;
+        this.topics = topics;
+        this.encoded = encoded;
+    }
+
+    /**
+     * Constructor used when reading a page back from its binary form.
+     */
+    public TopicPage() {
+        this.topics = new ArrayList<>();
+    }
+
+    /**
+     * Returns the same page sent at another version of the catalog, sharing its topics and their encoding.
+     * @param latest version of the catalog when the page is sent
+     * @param reset true if the page starts from version 0 instead of the version asked for
+     * @return copy of the page
+     */
+    public TopicPage sentAt(long latest, boolean reset) {
+        return new TopicPage(version, latest, reset, topics, encoded);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public long getLatest() {
+        return latest;
+    }
+
+    /**
+     * Tells whether the version asked for was not one of this catalog, as after a restart of the server or
+     * when the version came from another server, so the page starts from version 0.
+     * @return true if the copy of the catalog should be read again from the start
+     */
+    public boolean isReset() {
+        return reset;
+    }
+
+    /**
+     * Tells whether topics were added after the ones of the page.
+     * @return true if there is another page
+     */
+    public boolean hasMore() {
+        return version < latest;
+    }
+
+    /**
+     * Returns the topics of the page, in the order they were added.
+     * @return List of topics
+     */
+    public List<Topic> getTopics() {
+        return topics;
+    }
+
+    /**
+     * Writes the page, copying the topics as they were encoded when the page was built.
+     * @param out stream to write to
+     * @throws IOException
+     */
+    public void writeExternal(ObjectOutput out) throws IOException {
+        writeTo(out);
+    }
+
+    /**
+     * Reads the page written by writeExternal.
+     * @param in stream to read from
+     * @throws IOException
+     */
+    public void readExternal(ObjectInput in) throws IOException {
+        readFrom(in);
+    }
+
+    /**
+     * Writes the page in the WireCodec format. The topics carry their own keywords, apart from any other
+     * value written to the same stream.
+     * @param out stream to write to
+     * @throws IOException
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        WireCodec.writeVarLong(out, version);
+        WireCodec.writeVarLong(out, latest);
+        out.writeBoolean(reset);
+        if (encoded == null)
+            encoded = encode(topics);
+        out.write(encoded);
+    }
+
+    /**
+     * Reads a page written by writeTo.
+     * @param in stream to read from
+     * @return this page
+     * @throws IOException
+     */
+    public TopicPage readFrom(DataInput in) throws IOException {
+        version = WireCodec.readVarLong(in);
+        latest = WireCodec.readVarLong(in);
+        reset = in.readBoolean();
+        WireCodec.Reader reader = new WireCodec.Reader(in);
+        int size = reader.readCount();
+        ArrayList<Topic> list = new ArrayList<>(size);
+        for (int index = 0; index < size; index++)
+            list.add(reader.readTopic());
+        topics = list;
+        return this;
+    }
+
+    private static byte[] encode(List<Topic> topics) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            WireCodec.Writer writer = new WireCodec.Writer(out);
+            writer.writeVarInt(topics.size());
+            for (Topic topic : topics)
+                writer.writeTopic(topic);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
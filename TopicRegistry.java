@@ -0,0 +1,178 @@
+package edu.rit.cs;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * A class that indexes the topics of the server so that they can be found without scanning every topic.
+ * Topics are kept by their unique ID and by their name ignoring case.
+ * Both indexes are concurrent maps, so lookups from publishing threads never wait on a lock.
+ */
+public class TopicRegistry {
+
+    // Maps from the ID of a topic to the manager holding its subscribers, sorted by ID
+    private ConcurrentSkipListMap<Integer, SubscriberManager> byID;
+    // Same as byID without the order, for the lookups made on every delivery
+    private ConcurrentHashMap<Integer, SubscriberManager> lookup;
+    // Maps from the lower case name of a topic to the manager holding its subscribers
+    private ConcurrentHashMap<String, SubscriberManager> byName;
+    // Topics in the order they were added, the version of the catalog is the number of topics in it
+    private final ArrayList<Topic> added;
+    private volatile long version;
+    // Normalized names letter by letter, for searches by the first letters of a name
+    private final TopicTrie trie;
+    // Pages of the listing already encoded, by the version they start from
+    private final ConcurrentHashMap<Long, TopicPage> pages;
+    public static final int MAX_PAGE_TOPICS = 1000;
+
+
+    /**
+     * Constructor of the class. It creates empty indexes for future topics.
+     */
+    public TopicRegistry() {
+        byID = new ConcurrentSkipListMap<>();
+        lookup = new ConcurrentHashMap<>();
+        byName = new ConcurrentHashMap<>();
+        added = new ArrayList<>();
+        trie = new TopicTrie();
+        pages = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Normalizes a topic name so that lookups ignore case.
+     * @param name Name of the topic
+     * @return key used in the name index
+     */
+    public static String normalize(String name) {
+        return name.trim().toLowerCase();
+    }
+
+    /**
+     * Adding a topic that already has its unique ID set.
+     * @param manager manager holding the topic and its subscribers
+     * @return true if successful, false if a topic with the same name or ID exists
+     */
+    public boolean add(SubscriberManager manager) {
+        Topic topic = manager.getTopic();
+        String key = normalize(topic.getTopicName());
+        if (byName.putIfAbsent(key, manager) != null)
+            return false;
+        if (byID.putIfAbsent(topic.getTopicID(), manager) != null) {
+            byName.remove(key, manager);
+            return false;
+        }
+        lookup.put(topic.getTopicID(), manager);
+        synchronized (added) {
+            trie.add(topic);
+            added.add(topic);
+            version = added.size();
+        }
+        return true;
+    }
+
+    /**
+     * Returns the version of the catalog, which grows every time a topic is added.
+     * A topic counted in a version can be found by the time the version is returned.
+     * @return version of the catalog
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Returns the topics added after a version of the catalog, at most a page of them, so an agent can bring
+     * its copy up to date or read the whole catalog from version 0. Pages starting at a multiple of the page
+     * size are encoded once and kept: a full page never changes, since topics are only added.
+     * @param since version of the catalog the agent has, 0 for none
+     * @param maxTopics most topics in the page
+     * @return page of topics, starting from version 0 if since is not a version of this catalog
+     */
+    public TopicPage page(long since, int maxTopics) {
+        maxTopics = Math.max(1, Math.min(maxTopics, MAX_PAGE_TOPICS));
+        long latest = version;
+        boolean reset = since < 0 || since > latest;
+        long from = reset ? 0 : since;
+        boolean aligned = from % maxTopics == 0;
+        if (aligned) {
+            TopicPage page = pages.get(from);
+            int size = page == null ? -1 : page.getTopics().size();
+            if (size == maxTopics || (size >= 0 && size < maxTopics && page.getVersion() == latest))
+                return page.sentAt(latest, reset);
+        }
+        List<Topic> topics;
+        synchronized (added) {
+            latest = version;
+            topics = new ArrayList<>(added.subList((int) from, (int) Math.min(added.size(), from + maxTopics)));
+        }
+        TopicPage page = new TopicPage(from + topics.size(), latest, reset, topics);
+        if (aligned)
+            pages.put(from, page);
+        return page;
+    }
+
+    /**
+     * Checks whether a topic with the same name is already present.
+     * @param name Name of the topic
+     * @return true if the name is taken
+     */
+    public boolean containsName(String name) {
+        return byName.containsKey(normalize(name));
+    }
+
+    /**
+     * Returns the manager of the topic with the given ID.
+     * @param topicID unique ID of the topic
+     * @return manager of the topic or NULL
+     */
+    public SubscriberManager get(int topicID) {
+        return lookup.get(topicID);
+    }
+
+    /**
+     * Returns the manager of the topic with the given name, ignoring case.
+     * @param name Name of the topic
+     * @return manager of the topic or NULL
+     */
+    public SubscriberManager get(String name) {
+        return byName.get(normalize(name));
+    }
+
+    /**
+     * Returns the topics whose name starts with a prefix, ignoring case, in alphabetical order.
+     * The cost grows with the length of the prefix and the number of topics returned, not with the catalog.
+     * @param prefix first letters of the names
+     * @param maxTopics most topics returned, at most MAX_PAGE_TOPICS
+     * @return List of topics
+     */
+    public ArrayList<Topic> startingWith(String prefix, int maxTopics) {
+        return trie.startingWith(prefix, Math.min(maxTopics, MAX_PAGE_TOPICS));
+    }
+
+    /**
+     * Returning the number of topics.
+     * @return Number of topics
+     */
+    public int size() {
+        return byID.size();
+    }
+
+    /**
+     * Returning a copy of all managers.
+     * @return List of managers in the order of their IDs
+     */
+    public ArrayList<SubscriberManager> managers() {
+        return new ArrayList<>(byID.values());
+    }
+
+    /**
+     * Returning all topics.
+     * @return List of Topic Objects in the order of their IDs
+     */
+    public ArrayList<Topic> topics() {
+        ArrayList<Topic> topicList = new ArrayList<>();
+        for (SubscriberManager sAT : byID.values())
+            topicList.add(sAT.getTopic());
+        return topicList;
+    }
+}
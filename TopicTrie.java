@@ -0,0 +1,119 @@
+package edu.rit.cs;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A prefix tree over the normalized names of the topics, so the topics starting with some letters are found
+ * by walking those letters instead of comparing every name. Each node keeps its children sorted by letter,
+ * which returns the topics in alphabetical order. Adding a topic replaces the children of one node with a
+ * new array, so searches never wait on a lock and see every topic added before they started.
+ */
+public class TopicTrie {
+
+    /**
+     * One letter of a name, holding the topic whose name ends there, if any.
+     */
+    private static class Node {
+        final char letter;
+        volatile Node[] children = new Node[0];
+        volatile Topic topic;
+
+        Node(char letter) {
+            this.letter = letter;
+        }
+
+        Node child(char letter) {
+            Node[] nodes = children;
+            int index = indexOf(nodes, letter);
+            return index >= 0 ? nodes[index] : null;
+        }
+    }
+
+    private final Node root = new Node('\0');
+
+
+    /**
+     * Adding a topic under its normalized name. Calls must not overlap, the registry makes them one at a time.
+     * @param topic details of the topic
+     */
+    public void add(Topic topic) {
+        String key = TopicRegistry.normalize(topic.getTopicName());
+        Node node = root;
+        for (int position = 0; position < key.length(); position++) {
+            char letter = key.charAt(position);
+            Node[] nodes = node.children;
+            int index = indexOf(nodes, letter);
+            if (index >= 0) {
+                node = nodes[index];
+                continue;
+            }
+            //copy the children with the new one in its place, readers keep the old array until it is replaced
+            index = -index - 1;
+            Node[] grown = new Node[nodes.length + 1];
+            System.arraycopy(nodes, 0, grown, 0, index);
+            System.arraycopy(nodes, index, grown, index + 1, nodes.length - index);
+            grown[index] = new Node(letter);
+            node.children = grown;
+            node = grown[index];
+        }
+        node.topic = topic;
+    }
+
+    /**
+     * Returns the topic with the given name, ignoring case.
+     * @param name Name of the topic
+     * @return topic object or NULL
+     */
+    public Topic get(String name) {
+        Node node = find(TopicRegistry.normalize(name));
+        return node == null ? null : node.topic;
+    }
+
+    /**
+     * Returns the topics whose name starts with a prefix, ignoring case, in alphabetical order.
+     * It visits the letters of the prefix and then only the names returned.
+     * @param prefix first letters of the names, empty for every topic
+     * @param maxTopics most topics returned
+     * @return List of topics
+     */
+    public ArrayList<Topic> startingWith(String prefix, int maxTopics) {
+        ArrayList<Topic> topics = new ArrayList<>();
+        Node node = find(TopicRegistry.normalize(prefix));
+        if (node != null && maxTopics > 0)
+            collect(node, topics, maxTopics);
+        return topics;
+    }
+
+    private Node find(String key) {
+        Node node = root;
+        for (int position = 0; node != null && position < key.length(); position++)
+            node = node.child(key.charAt(position));
+        return node;
+    }
+
+    private static void collect(Node node, List<Topic> topics, int maxTopics) {
+        Topic topic = node.topic;
+        if (topic != null)
+            topics.add(topic);
+        for (Node child : node.children) {
+            if (topics.size() >= maxTopics)
+                return;
+            collect(child, topics, maxTopics);
+        }
+    }
+
+    private static int indexOf(Node[] nodes, char letter) {
+        int low = 0;
+        int high = nodes.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (nodes[middle].letter < letter)
+                low = middle + 1;
+            else if (nodes[middle].letter > letter)
+                high = middle - 1;
+            else
+                return middle;
+        }
+        return -(low + 1);
+    }
+}
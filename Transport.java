@@ -0,0 +1,41 @@
+package edu.rit.cs;
+import java.io.IOException;
+
+/**
+ * The way calls of EventInterface and the callbacks of Subscriber travel between agents and servers.
+ * The transport is picked from the scheme of an address: nio://host:port uses NioTransport, anything else
+ * (rmi://host:port/Name or //host:port/Name) uses Java RMI as before.
+ */
+public interface Transport {
+
+    /**
+     * Makes a server reachable at an address.
+     *
+     * @param address address of the server
+     * @param service server receiving the calls
+     * @throws IOException if the address can't be bound
+     */
+    public void bind(String address, EventInterface service) throws IOException;
+
+    /**
+     * Returns an object making calls on the server at an address. It also implements ClusterPeer
+     * so servers of a cluster can use it to call each other.
+     *
+     * @param address address of the server
+     * @return the server
+     * @throws IOException if the server can't be reached
+     */
+    public EventInterface lookup(String address) throws IOException;
+
+    /**
+     * Returns the transport that handles an address.
+     *
+     * @param address address of a server
+     * @return transport for the address
+     */
+    public static Transport forAddress(String address) {
+        if (address.startsWith(NioTransport.SCHEME))
+            return NioTransport.getInstance();
+        return RmiTransport.getInstance();
+    }
+}
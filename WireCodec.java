@@ -0,0 +1,355 @@
+package edu.rit.cs;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * This class holds the compact binary format used for events and topics on the wire and on disk.
+ * Numbers are written as variable length integers, strings as a length followed by UTF-8 bytes,
+ * and a keyword that was already written on the same stream is replaced by its index.
+ * Every value takes at least one byte, so a count or a length read from an Input can't be larger than what
+ * is left of it, and one that is is refused before anything is allocated for it.
+ */
+public class WireCodec {
+
+    private WireCodec() {
+    }
+
+    /**
+     * Writes a non-negative number in 1 to 5 bytes, 7 bits per byte.
+     * @param out stream to write to
+     * @param value number to write
+     * @throws IOException
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads a number written by writeVarInt.
+     * @param in stream to read from
+     * @return the number
+     * @throws IOException if the number is longer than 5 bytes
+     */
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed variable length integer.");
+    }
+
+    /**
+     * Reads the number of values or bytes that follow, written by writeVarInt.
+     * @param in stream to read from
+     * @return the number
+     * @throws IOException if the number is negative or larger than what is left of an Input
+     */
+    public static int readCount(DataInput in) throws IOException {
+        return checkCount(in, readVarInt(in));
+    }
+
+    private static int checkCount(DataInput in, int count) throws IOException {
+        if (count < 0 || (in instanceof Input && count > ((Input) in).available()))
+            throw new IOException("Count " + count + " is larger than the rest of the message.");
+        return count;
+    }
+
+    /**
+     * Writes a non-negative number in 1 to 10 bytes, 7 bits per byte.
+     * @param out stream to write to
+     * @param value number to write
+     * @throws IOException
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * Reads a number written by writeVarLong.
+     * @param in stream to read from
+     * @return the number
+     * @throws IOException if the number is longer than 10 bytes
+     */
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed variable length integer.");
+    }
+
+    /**
+     * Writes a string as its length plus one followed by its UTF-8 bytes, a length of 0 meaning NULL.
+     * @param out stream to write to
+     * @param value string to write
+     * @throws IOException
+     */
+    public static void writeString(DataOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    /**
+     * Reads a string written by writeString.
+     * @param in stream to read from
+     * @return the string or NULL
+     * @throws IOException
+     */
+    public static String readString(DataInput in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0)
+            return null;
+        byte[] bytes = new byte[checkCount(in, length - 1)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * A stream over the bytes of one message, which knows how many of them are left.
+     */
+    public static class Input extends DataInputStream {
+
+        /**
+         * Constructor of the class.
+         * @param bytes the whole message
+         */
+        public Input(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+    }
+
+
+    /**
+     * Writes values to a stream, remembering the keywords already written so repeats cost one or two bytes.
+     */
+    public static class Writer {
+        private DataOutput out;
+        private HashMap<String, Integer> keywordIndex;
+
+        /**
+         * Constructor of the class.
+         * @param out stream to write to
+         */
+        public Writer(DataOutput out) {
+            this.out = out;
+            keywordIndex = new HashMap<>();
+        }
+
+        /**
+         * Writes a non-negative number, see WireCodec.writeVarInt.
+         * @param value number to write
+         * @throws IOException
+         */
+        public void writeVarInt(int value) throws IOException {
+            WireCodec.writeVarInt(out, value);
+        }
+
+        /**
+         * Writes a non-negative number, see WireCodec.writeVarLong.
+         * @param value number to write
+         * @throws IOException
+         */
+        public void writeVarLong(long value) throws IOException {
+            WireCodec.writeVarLong(out, value);
+        }
+
+        /**
+         * Writes a string, see WireCodec.writeString.
+         * @param value string to write
+         * @throws IOException
+         */
+        public void writeString(String value) throws IOException {
+            WireCodec.writeString(out, value);
+        }
+
+        /**
+         * Writes a keyword as 0 followed by the string the first time, then as its index plus one.
+         * @param keyword word to write
+         * @throws IOException
+         */
+        public void writeKeyword(String keyword) throws IOException {
+            Integer index = keywordIndex.get(keyword);
+            if (index != null) {
+                writeVarInt(index + 1);
+                return;
+            }
+            writeVarInt(0);
+            writeString(keyword);
+            keywordIndex.put(keyword, keywordIndex.size());
+        }
+
+        /**
+         * Writes the number of keywords followed by each keyword. NULL is written as no keywords.
+         * @param keywords words to write
+         * @throws IOException
+         */
+        public void writeKeywords(String[] keywords) throws IOException {
+            if (keywords == null) {
+                writeVarInt(0);
+                return;
+            }
+            writeVarInt(keywords.length);
+            for (String keyword : keywords)
+                writeKeyword(keyword);
+        }
+
+        /**
+         * Writes the ID, name and keywords of a topic.
+         * @param topic details of the topic
+         * @throws IOException
+         */
+        public void writeTopic(Topic topic) throws IOException {
+            writeVarInt(topic.getTopicID());
+            writeString(topic.getTopicName());
+            writeKeywords(topic.getKeywords());
+        }
+
+        /**
+         * Writes everything an envelope carries.
+         * @param event details of the event
+         * @throws IOException
+         */
+        public void writeEnvelope(EventEnvelope event) throws IOException {
+            writeVarInt(event.getID());
+            writeVarInt(event.getTopicID());
+            writeVarLong(event.getOffset());
+            writeString(event.getTitle());
+            writeString(event.getContent());
+            writeKeywords(event.getKeywords());
+        }
+    }
+
+
+    /**
+     * Reads values written by a Writer from a stream, resolving keyword indexes.
+     */
+    public static class Reader {
+        private DataInput in;
+        private ArrayList<String> keywords;
+
+        /**
+         * Constructor of the class.
+         * @param in stream to read from
+         */
+        public Reader(DataInput in) {
+            this.in = in;
+            keywords = new ArrayList<>();
+        }
+
+        /**
+         * Reads a number, see WireCodec.readVarInt.
+         * @return the number
+         * @throws IOException
+         */
+        public int readVarInt() throws IOException {
+            return WireCodec.readVarInt(in);
+        }
+
+        /**
+         * Reads a count, see WireCodec.readCount.
+         * @return the number
+         * @throws IOException
+         */
+        public int readCount() throws IOException {
+            return WireCodec.readCount(in);
+        }
+
+        /**
+         * Reads a number, see WireCodec.readVarLong.
+         * @return the number
+         * @throws IOException
+         */
+        public long readVarLong() throws IOException {
+            return WireCodec.readVarLong(in);
+        }
+
+        /**
+         * Reads a string, see WireCodec.readString.
+         * @return the string or NULL
+         * @throws IOException
+         */
+        public String readString() throws IOException {
+            return WireCodec.readString(in);
+        }
+
+        /**
+         * Reads a keyword written by writeKeyword.
+         * @return the keyword
+         * @throws IOException if the index was never written
+         */
+        public String readKeyword() throws IOException {
+            int index = readVarInt();
+            if (index == 0) {
+                String keyword = readString();
+                keywords.add(keyword);
+                return keyword;
+            }
+            if (index > keywords.size())
+                throw new IOException("Unknown keyword reference " + index + ".");
+            return keywords.get(index - 1);
+        }
+
+        /**
+         * Reads keywords written by writeKeywords.
+         * @return Array of words
+         * @throws IOException
+         */
+        public String[] readKeywords() throws IOException {
+            String[] result = new String[readCount()];
+            for (int index = 0; index < result.length; index++)
+                result[index] = readKeyword();
+            return result;
+        }
+
+        /**
+         * Reads a topic written by writeTopic.
+         * @return Topic object
+         * @throws IOException
+         */
+        public Topic readTopic() throws IOException {
+            int topicID = readVarInt();
+            String name = readString();
+            return new Topic(name, readKeywords()).setTopicID(topicID);
+        }
+
+        /**
+         * Reads an envelope written by writeEnvelope.
+         * @return envelope of the event
+         * @throws IOException
+         */
+        public EventEnvelope readEnvelope() throws IOException {
+            int eventID = readVarInt();
+            int topicID = readVarInt();
+            long offset = readVarLong();
+            String title = readString();
+            String content = readString();
+            return new EventEnvelope(eventID, topicID, offset, title, content, readKeywords());
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package edu.rit.cs;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks that everything written in the WireCodec format reads back the same, since the same bytes go over
+ * RMI, the NIO transport, the spill files and the event log. Run it with
+ * java -cp target/project2-1.0-SNAPSHOT.jar edu.rit.cs.WireCodecCheck
+ * It prints every check and exits with 1 on a failure.
+ */
+public class WireCodecCheck {
+
+    private static int failures = 0;
+
+    /**
+     * Runs every check.
+     * @param args not used
+     * @throws Exception if a value can't be written or read back
+     */
+    public static void main(String[] args) throws Exception {
+        checkVarInts();
+        checkStrings();
+        checkTopics();
+        checkEvents();
+        checkEnvelopes();
+        checkBatch();
+        checkPage();
+        checkMalformed();
+        System.out.println(failures == 0 ? "All checks passed." : failures + " checks failed.");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void check(boolean passed, String name) {
+        if (!passed)
+            failures++;
+        System.out.println((passed ? "ok   " : "FAIL ") + name);
+    }
+
+    private static void checkVarInts() throws IOException {
+        int[] ints = {0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE};
+        int[] intBytes = {1, 1, 1, 2, 2, 3, 5, 5, 5};
+        for (int index = 0; index < ints.length; index++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            WireCodec.writeVarInt(new DataOutputStream(bytes), ints[index]);
+            int read = WireCodec.readVarInt(input(bytes));
+            check(read == ints[index] && bytes.size() == intBytes[index],
+                    "varint " + ints[index] + " in " + bytes.size() + " bytes");
+        }
+        long[] longs = {0, 127, 128, Integer.MAX_VALUE + 1L, Long.MAX_VALUE, -1, Long.MIN_VALUE};
+        int[] longBytes = {1, 1, 2, 5, 9, 10, 10};
+        for (int index = 0; index < longs.length; index++) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            WireCodec.writeVarLong(new DataOutputStream(bytes), longs[index]);
+            long read = WireCodec.readVarLong(input(bytes));
+            check(read == longs[index] && bytes.size() == longBytes[index],
+                    "varlong " + longs[index] + " in " + bytes.size() + " bytes");
+        }
+    }
+
+    private static void checkStrings() throws IOException {
+        String[] strings = {null, "", "news", "Caf\u00e9", "\u5929\u6c17\u4e88\u5831", "emoji \ud83d\ude00 and \u00e9"};
+        for (String value : strings) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            WireCodec.writeString(new DataOutputStream(bytes), value);
+            String read = WireCodec.readString(input(bytes));
+            check(value == null ? read == null : value.equals(read), "string " + value);
+        }
+    }
+
+    private static void checkTopics() throws Exception {
+        String name = "M\u00e9t\u00e9o \u5929\u6c17";
+        Topic topic = roundTrip(new Topic(name, "rain,rain, snow").setTopicID(Integer.MAX_VALUE));
+        check(topic.getTopicID() == Integer.MAX_VALUE && topic.getTopicName().equals(name)
+                && Arrays.equals(topic.getKeywords(), new String[] {"rain", "rain", " snow"}), "topic");
+        topic = roundTrip(new Topic("empty", new String[0]).setTopicID(1));
+        check(topic.getKeywords().length == 0, "topic without keywords");
+        topic = roundTrip(new Topic("null", (String[]) null).setTopicID(1));
+        check(topic.getKeywords() != null && topic.getKeywords().length == 0, "topic with NULL keywords");
+    }
+
+    private static void checkEvents() throws Exception {
+        Topic topic = new Topic("sports", "ball,goal").setTopicID(128);
+        String title = "\u00dcn\u00efc\u00f6d\u00e9 t\u00edtle \u26bd";
+        Event event = roundTrip(new Event(topic, title, null, "goal,ball,goal").setID(16384));
+        check(event.getID() == 16384 && event.getTitle().equals(title) && event.getContent() == null
+                && event.getTopic().getTopicID() == 128
+                && Arrays.equals(event.getKeywords(), new String[] {"goal", "ball", "goal"}), "event");
+        event = roundTrip(new Event(topic, "", "", null));
+        check(Arrays.equals(event.getKeywords(), topic.getKeywords()), "event with the keywords of its topic");
+    }
+
+    private static void checkEnvelopes() throws Exception {
+        EventEnvelope envelope = roundTrip(new EventEnvelope(Integer.MAX_VALUE, 127, Long.MAX_VALUE,
+                "t\u00edtulo", "contenu \u00e9", new String[] {"a", "b", "a"}));
+        check(same(envelope, new EventEnvelope(Integer.MAX_VALUE, 127, Long.MAX_VALUE, "t\u00edtulo", "contenu \u00e9",
+                new String[] {"a", "b", "a"})), "envelope");
+        envelope = roundTrip(new EventEnvelope(0, 0, 0, null, null, null));
+        check(envelope.getTitle() == null && envelope.getKeywords().length == 0, "envelope with NULL values");
+        envelope = roundTrip(new EventEnvelope(1, 2, 3, "t", "c", new String[0]));
+        check(envelope.getKeywords().length == 0, "envelope without keywords");
+    }
+
+    private static void checkBatch() throws Exception {
+        ArrayList<EventEnvelope> events = new ArrayList<>();
+        for (int index = 0; index < 100; index++) {
+            String[] keywords = index % 10 == 0 ? null : new String[] {"weather-warning", "region-" + (index % 3)};
+            events.add(new EventEnvelope(index * 3 + 1, 7, index, "event " + index + " \u2602", "c", keywords));
+        }
+        EventBatch batch = roundTrip(new EventBatch(events));
+        boolean same = batch.size() == events.size();
+        for (int index = 0; same && index < events.size(); index++)
+            same = same(batch.get(index), events.get(index));
+        check(same, "batch of " + events.size() + " envelopes sharing keywords");
+        // every keyword after its first use costs one byte instead of its spelling
+        ByteArrayOutputStream shared = new ByteArrayOutputStream();
+        WireCodec.Writer writer = new WireCodec.Writer(new DataOutputStream(shared));
+        for (EventEnvelope event : events)
+            writer.writeEnvelope(event);
+        int separate = 0;
+        for (EventEnvelope event : events) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new WireCodec.Writer(new DataOutputStream(bytes)).writeEnvelope(event);
+            separate += bytes.size();
+        }
+        check(shared.size() < separate - 90 * "weather-warning".length(),
+                "repeated keywords written once: " + shared.size() + " bytes instead of " + separate);
+        WireCodec.Reader reader = new WireCodec.Reader(input(shared));
+        same = true;
+        for (EventEnvelope event : events)
+            same &= same(reader.readEnvelope(), event);
+        check(same, "envelopes read back from one stream");
+    }
+
+    private static void checkPage() throws Exception {
+        List<Topic> topics = new ArrayList<>();
+        for (int index = 0; index < 50; index++)
+            topics.add(new Topic("t\u00f3pico " + index, "shared,k" + (index % 4)).setTopicID(index + 1));
+        TopicPage page = new TopicPage(50, 60, false, topics);
+        TopicPage read = roundTrip(page);
+        boolean same = read.getVersion() == 50 && read.getLatest() == 60 && !read.isReset() && read.hasMore()
+                && read.getTopics().size() == topics.size();
+        for (int index = 0; same && index < topics.size(); index++) {
+            same = read.getTopics().get(index).getTopicName().equals(topics.get(index).getTopicName())
+                    && Arrays.equals(read.getTopics().get(index).getKeywords(), topics.get(index).getKeywords());
+        }
+        check(same, "topic page");
+        read = roundTrip(page.sentAt(0, true));
+        check(read.isReset() && read.getLatest() == 0 && read.getTopics().size() == 50, "copy of a topic page");
+        // a page and an envelope written to one stream keep their keywords apart
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        WireCodec.Writer writer = new WireCodec.Writer(out);
+        writer.writeKeyword("shared");
+        page.writeTo(out);
+        writer.writeEnvelope(new EventEnvelope(1, 1, 1, "t", "c", new String[] {"shared"}));
+        DataInputStream in = input(bytes);
+        WireCodec.Reader reader = new WireCodec.Reader(in);
+        reader.readKeyword();
+        read = new TopicPage().readFrom(in);
+        EventEnvelope envelope = reader.readEnvelope();
+        check(read.getTopics().size() == 50 && envelope.getKeywords()[0].equals("shared"),
+                "topic page between other values");
+    }
+
+    private static void checkMalformed() {
+        byte[] tooLong = {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0};
+        check(fails(() -> WireCodec.readVarInt(new DataInputStream(new ByteArrayInputStream(tooLong)))),
+                "varint longer than 5 bytes is refused");
+        byte[] reference = {5};
+        check(fails(() -> new WireCodec.Reader(new DataInputStream(new ByteArrayInputStream(reference))).readKeyword()),
+                "reference to an unknown keyword is refused");
+        byte[] shortString = {10, 'a'};
+        check(fails(() -> WireCodec.readString(new DataInputStream(new ByteArrayInputStream(shortString)))),
+                "string cut short is refused");
+        // 200 million keywords claimed in 6 bytes
+        byte[] hugeCount = {(byte) 0x80, (byte) 0x84, (byte) 0xAF, (byte) 0x5F, 0, 0};
+        check(fails(() -> new WireCodec.Reader(new WireCodec.Input(hugeCount)).readKeywords()),
+                "count larger than the message is refused");
+        byte[] hugeString = {(byte) 0x81, (byte) 0x84, (byte) 0xAF, (byte) 0x5F, 'a'};
+        check(fails(() -> WireCodec.readString(new WireCodec.Input(hugeString))),
+                "string longer than the message is refused");
+        byte[] fits = {4, 'a', 'b', 'c'};
+        check(!fails(() -> WireCodec.readString(new WireCodec.Input(fits))), "string filling the message is read");
+    }
+
+    private interface Read {
+        void read() throws IOException;
+    }
+
+    private static boolean fails(Read read) {
+        try {
+            read.read();
+            return false;
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static boolean same(EventEnvelope a, EventEnvelope b) {
+        String[] keywords = b.getKeywords() == null ? new String[0] : b.getKeywords();
+        return a.getID() == b.getID() && a.getTopicID() == b.getTopicID() && a.getOffset() == b.getOffset()
+                && String.valueOf(a.getTitle()).equals(String.valueOf(b.getTitle()))
+                && String.valueOf(a.getContent()).equals(String.valueOf(b.getContent()))
+                && Arrays.equals(a.getKeywords(), keywords);
+    }
+
+    private static DataInputStream input(ByteArrayOutputStream bytes) {
+        return new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    // writes and reads a value the way RMI does, through its Externalizable methods
+    @SuppressWarnings("unchecked")
+    private static <T> T roundTrip(T value) throws IOException, ClassNotFoundException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(value);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (T) in.readObject();
+        }
+    }
+}